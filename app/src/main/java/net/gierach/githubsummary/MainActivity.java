@@ -10,6 +10,7 @@ import net.gierach.githubsummary.fragments.RepoListFragment;
 import net.gierach.githubsummary.fragments.SignInFragment;
 import net.gierach.githubsummary.model.UserAccount;
 import net.gierach.githubsummary.model.UserAccountDao;
+import net.gierach.githubsummary.service.SyncScheduler;
 
 public class MainActivity extends AppCompatActivity implements UserAccountDao.Listener {
 
@@ -32,6 +33,7 @@ public class MainActivity extends AppCompatActivity implements UserAccountDao.Li
         setContentView(R.layout.activity_main);
 
         UserAccountDao.getInstance(this).registerListener(this);
+        SyncScheduler.schedulePeriodicSync(this);
 
         canPerformFragmentTransactions = true;
         if (savedInstanceState != null) {
@@ -17,6 +17,7 @@ import android.widget.CheckBox;
 import android.widget.TextView;
 
 import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.service.RepoFetchService;
 
 import java.text.NumberFormat;
 
@@ -52,6 +53,24 @@ public class RepoDetailsActivity extends AppCompatActivity implements LoaderMana
         getLoaderManager().initLoader(MAIN_LOADER_ID, bundle, this);
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        //The languages of an opened repo are fetched before the rest if a sync is running.
+        Uri data = getIntent().getData();
+        if (data != null) {
+            RepoFetchService.prioritizeRepoLanguages(this, ContentUris.parseId(data));
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        RepoFetchService.prioritizeRepoLanguages(this);
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
         if (id == MAIN_LOADER_ID) {
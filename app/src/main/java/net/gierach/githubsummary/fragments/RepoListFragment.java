@@ -13,6 +13,7 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
@@ -24,21 +25,18 @@ import net.gierach.githubsummary.model.UserAccountDao;
 import net.gierach.githubsummary.provider.ReposContract;
 import net.gierach.githubsummary.service.RepoFetchService;
 
-import java.util.concurrent.TimeUnit;
 
 public class RepoListFragment extends Fragment implements
         SyncingStateManager.Listener,
         LoaderManager.LoaderCallbacks<Cursor>,
-        UserAccountDao.Listener
+        UserAccountDao.Listener,
+        AbsListView.OnScrollListener
 {
 
     private static final String TAG = "RepoListFragment";
 
     private static final int LOADER_REPO_LIST = 1;
 
-    private static final String SAVE_STATE_AUTO_SYNC_TIMESTAMP = "auto_sync_timestamp";
-    private static final long AUTO_SYNC_THRESHOLD = TimeUnit.MINUTES.toMillis(10);
-
     private ListView mList;
     private View mEmptyListLayout;
     private ProgressBar mEmptyProgress;
@@ -49,7 +47,9 @@ public class RepoListFragment extends Fragment implements
 
     private UserAccount mUserAccount;
 
-    private long lastAutoSync = 0;
+    private boolean mResumed;
+    private int mFirstVisibleItem = -1;
+    private int mVisibleItemCount = -1;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -71,10 +71,7 @@ public class RepoListFragment extends Fragment implements
         mEmptyStatus = mEmptyListLayout.findViewById(R.id.progressText);
         mSyncingStatus = view.findViewById(R.id.repo_list_status);
         mList.setEmptyView(mEmptyListLayout);
-
-        if (savedInstanceState != null) {
-            lastAutoSync = savedInstanceState.getLong(SAVE_STATE_AUTO_SYNC_TIMESTAMP, lastAutoSync);
-        }
+        mList.setOnScrollListener(this);
 
         return view;
     }
@@ -104,6 +101,7 @@ public class RepoListFragment extends Fragment implements
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
         if (mListAdapter != null) {
             mListAdapter.swapCursor(data);
+            mFirstVisibleItem = -1;
         }
     }
 
@@ -125,7 +123,7 @@ public class RepoListFragment extends Fragment implements
         switch (item.getItemId()) {
             case R.id.menu_item_refresh:
                 if (mUserAccount != null) {
-                    RepoFetchService.syncUserRepos(getActivity(), mUserAccount);
+                    RepoFetchService.syncUserRepos(getActivity(), mUserAccount, RepoFetchService.SYNC_PRIORITY_USER);
                 }
                 break;
             case R.id.menu_item_sign_out:
@@ -185,11 +183,6 @@ public class RepoListFragment extends Fragment implements
             } else {
                 loaderManager.initLoader(LOADER_REPO_LIST, null, this);
             }
-            long now = System.currentTimeMillis();
-            if ((now - lastAutoSync) >= AUTO_SYNC_THRESHOLD) {
-                lastAutoSync = now;
-                RepoFetchService.syncUserRepos(getActivity(), mUserAccount);
-            }
         } else {
             loaderManager.destroyLoader(LOADER_REPO_LIST);
         }
@@ -197,6 +190,55 @@ public class RepoListFragment extends Fragment implements
 
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        mResumed = true;
+        mFirstVisibleItem = -1;
+        if (mList != null) {
+            updateVisibleRepos(mList.getFirstVisiblePosition(), mList.getChildCount());
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+
+        //Cleared on pause rather than stop, so it runs before a started RepoDetailsActivity sets its repo.
+        mResumed = false;
+        RepoFetchService.prioritizeRepoLanguages(getActivity());
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        updateVisibleRepos(firstVisibleItem, visibleItemCount);
+    }
+
+    /**
+     * Has the languages of the repos on screen fetched first by a running sync.
+     */
+    private void updateVisibleRepos(int firstVisibleItem, int visibleItemCount) {
+        if (!mResumed || mListAdapter == null || (firstVisibleItem == mFirstVisibleItem && visibleItemCount == mVisibleItemCount)) {
+            return;
+        }
+        mFirstVisibleItem = firstVisibleItem;
+        mVisibleItemCount = visibleItemCount;
+
+        int end = Math.min(firstVisibleItem + visibleItemCount, mListAdapter.getCount());
+        long[] repoIds = new long[Math.max(0, end - firstVisibleItem)];
+        for (int i = firstVisibleItem; i < end; ++i) {
+            repoIds[i - firstVisibleItem] = mListAdapter.getItemId(i);
+        }
+
+        RepoFetchService.prioritizeRepoLanguages(getActivity(), repoIds);
+    }
+
     @Override
     public void onStop() {
         super.onStop();
@@ -6,7 +6,7 @@ import net.gierach.githubsummary.provider.ReposContract;
 
 public class LanguageData {
     public String language;
-    public int byteCount;
+    public long byteCount;
 
     public ContentValues getContentValues() {
         ContentValues values = new ContentValues();
@@ -4,7 +4,13 @@ import android.content.ContentValues;
 
 import net.gierach.githubsummary.provider.ReposContract;
 
+import java.util.List;
+
 public class RepoData {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
     public String serverId;
     public String name;
     public String owner;
@@ -14,6 +20,9 @@ public class RepoData {
     public int stargazerCount;
     public boolean isPrivate;
     public String description;
+    public String pushedAt;
+    public long size;
+    public List<LanguageData> languages;
 
     public ContentValues getContentValues(long userId) {
         ContentValues contentValues = new ContentValues();
@@ -24,12 +33,48 @@ public class RepoData {
         contentValues.put(ReposContract.RepoColumns.OWNER, owner);
         contentValues.put(ReposContract.RepoColumns.OWNER_TYPE, ownerType);
         contentValues.put(ReposContract.RepoColumns.LANGUAGES_URL, languagesUrl);
-        contentValues.put(ReposContract.RepoColumns.NEED_LANG_SYNC, true);
         contentValues.put(ReposContract.RepoColumns.ON_SERVER, onServer);
         contentValues.put(ReposContract.RepoColumns.STARGAZER_COUNT, stargazerCount);
         contentValues.put(ReposContract.RepoColumns.IS_PRIVATE, isPrivate);
         contentValues.put(ReposContract.RepoColumns.DESCRIPTION, description);
+        contentValues.put(ReposContract.RepoColumns.PUSHED_AT, pushedAt);
+        contentValues.put(ReposContract.RepoColumns.SIZE, size);
+        contentValues.put(ReposContract.RepoColumns.CONTENT_HASH, getContentHash());
 
         return contentValues;
     }
+
+    /**
+     * 64 bit FNV-1a hash of the synced fields, stored with the row so a sync can tell unchanged repos apart without
+     * reading them back.
+     */
+    public long getContentHash() {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hash(hash, serverId);
+        hash = hash(hash, name);
+        hash = hash(hash, owner);
+        hash = hash(hash, ownerType);
+        hash = hash(hash, languagesUrl);
+        hash = hash(hash, Integer.toString(stargazerCount));
+        hash = hash(hash, isPrivate ? "1" : "0");
+        hash = hash(hash, description);
+        hash = hash(hash, pushedAt);
+        hash = hash(hash, Long.toString(size));
+
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); ++i) {
+                hash ^= value.charAt(i);
+                hash *= FNV_PRIME;
+            }
+        }
+        //Separator, so null, "" and shifted field boundaries hash differently.
+        hash ^= value == null ? 1 : 2;
+        hash *= FNV_PRIME;
+
+        return hash;
+    }
 }
@@ -15,6 +15,7 @@ import net.gierach.githubsummary.provider.ReposContract;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -95,6 +96,25 @@ public class UserAccountDao {
     }
     private final List<Listener> mListeners = new ArrayList<>();
 
+    /**
+     * Called synchronously on the thread making the change, so work for the account can be stopped before its rows
+     * are deleted or other accounts are served.
+     */
+    public interface AccountLifecycleListener {
+        void onAccountRemoved(UserAccount userAccount);
+        void onAccountDeselected(UserAccount userAccount);
+    }
+    //Static so process wide services can listen without loading the accounts.
+    private static final List<AccountLifecycleListener> sLifecycleListeners = new CopyOnWriteArrayList<>();
+
+    public static void addAccountLifecycleListener(AccountLifecycleListener listener) {
+        sLifecycleListeners.add(listener);
+    }
+
+    public static void removeAccountLifecycleListener(AccountLifecycleListener listener) {
+        sLifecycleListeners.remove(listener);
+    }
+
     private UserAccountDao(Context context) {
         this.mContext = context.getApplicationContext();
 
@@ -228,7 +248,13 @@ public class UserAccountDao {
     //Must hold the lock before calling this method.
     private void setCurrentAccountInner(UserAccount userAccount) {
         if (mCurrentAccount != userAccount) {
+            UserAccount previous = mCurrentAccount;
             mCurrentAccount = userAccount;
+            if (previous != null && mUserAccounts.get(previous.getUsername()) == previous) {
+                for (AccountLifecycleListener listener : sLifecycleListeners) {
+                    listener.onAccountDeselected(previous);
+                }
+            }
             if (userAccount != null) {
                 userAccount.resetLastUsed();
                 saveUserAccount(userAccount);
@@ -311,6 +337,9 @@ public class UserAccountDao {
                         mContext.getContentResolver().delete(ReposContract.UserAccounts.CONTENT_URI, ReposContract.UserAccountColumns.USERNAME + "=?", new String[]{found.getUsername()});
                     }
                 };
+                for (AccountLifecycleListener listener : sLifecycleListeners) {
+                    listener.onAccountRemoved(found);
+                }
                 SyncingStateManager.getInstance().syncingFinishedForUserAccount(found);
                 if (found == mCurrentAccount) {
                     UserAccount newCurrent = null;
@@ -336,6 +365,27 @@ public class UserAccountDao {
         return result;
     }
 
+    public List<UserAccount> getValidatedAccounts() {
+        List<UserAccount> result = new ArrayList<>();
+
+        mLoadLock.lock();
+        try {
+            waitForLoad();
+
+            for (UserAccount userAccount : mUserAccounts.values()) {
+                if (Boolean.TRUE.equals(userAccount.isValidated())) {
+                    result.add(userAccount);
+                }
+            }
+        } catch (InterruptedException ie) {
+
+        } finally {
+            mLoadLock.unlock();
+        }
+
+        return result;
+    }
+
     public UserAccount getAccountByUsername(String username) {
         UserAccount result = null;
 
@@ -0,0 +1,109 @@
+package net.gierach.githubsummary.protocol;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+
+/**
+ * Cancels the work of one sync from another thread. Requests made with the token are aborted when it is cancelled,
+ * and the sync checks it between steps so it stops before its next request or database write. Cancelling cannot
+ * be undone.
+ */
+public class CancellationToken {
+
+    interface Listener {
+        void onCancelled();
+    }
+
+    private final HashSet<Call> mCalls = new HashSet<>();
+    private final HashSet<Listener> mListeners = new HashSet<>();
+    private volatile boolean mCancelled = false;
+
+    public void cancel() {
+        ArrayList<Call> calls;
+        ArrayList<Listener> listeners;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            notifyAll();
+            calls = new ArrayList<>(mCalls);
+            mCalls.clear();
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+
+        for (Call call : calls) {
+            call.cancel();
+        }
+        for (Listener listener : listeners) {
+            listener.onCancelled();
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @throws InterruptedIOException if the token has been cancelled
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (mCancelled) {
+            throw new InterruptedIOException("Canceled");
+        }
+    }
+
+    /**
+     * Sleeps like {@link Thread#sleep(long)}, but wakes up as soon as the token is cancelled.
+     *
+     * @throws InterruptedIOException if the token is or gets cancelled
+     */
+    synchronized void sleep(long delayMs) throws InterruptedException, InterruptedIOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMs);
+        long remaining = TimeUnit.MILLISECONDS.toNanos(delayMs);
+        while (!mCancelled && remaining > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+
+        throwIfCancelled();
+    }
+
+    /**
+     * Tracks a call until {@link #unregister(Call)}, cancelling it right away if the token already is.
+     */
+    synchronized void register(Call call) {
+        if (mCancelled) {
+            call.cancel();
+        } else {
+            mCalls.add(call);
+        }
+    }
+
+    synchronized void unregister(Call call) {
+        mCalls.remove(call);
+    }
+
+    /**
+     * Notifies listener once the token is cancelled, right away if it already is.
+     */
+    void addListener(Listener listener) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+
+        listener.onCancelled();
+    }
+
+    synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,25 @@
+package net.gierach.githubsummary.protocol;
+
+/**
+ * Cache validators for a single GET url. The stored etag and last modified values are sent as
+ * If-None-Match/If-Modified-Since and are replaced with the values of the response. When the server answers
+ * 304 notModified is set and the remaining fields keep their stored values.
+ */
+public class ConditionalRequest {
+    public final String url;
+    public String etag;
+    public String lastModified;
+    public String link;
+    public boolean notModified;
+
+    public ConditionalRequest(String url) {
+        this.url = url;
+    }
+
+    public ConditionalRequest(String url, String etag, String lastModified, String link) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.link = link;
+    }
+}
@@ -0,0 +1,387 @@
+package net.gierach.githubsummary.protocol;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import net.gierach.githubsummary.model.LanguageData;
+import net.gierach.githubsummary.model.RepoData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming readers for the GitHub v3 and v4 (GraphQL) payloads. Only the fields the app stores are read, every other value
+ * (including nested objects such as permissions and license) is skipped without being materialized.
+ */
+class GitHubJsonParser {
+
+    static String readUserDisplayName(JsonReader reader) throws IOException {
+        String name = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("name".equals(reader.nextName())) {
+                name = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return name;
+    }
+
+    static int readRepoArray(JsonReader reader, List<RepoData> list) throws IOException {
+        int count = 0;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            list.add(readRepo(reader));
+            ++count;
+        }
+        reader.endArray();
+
+        return count;
+    }
+
+    static RepoData readRepo(JsonReader reader) throws IOException {
+        RepoData repoData = new RepoData();
+        repoData.onServer = true;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "id":
+                    repoData.serverId = Long.toString(reader.nextLong());
+                    break;
+                case "name":
+                    repoData.name = nextStringOrNull(reader);
+                    break;
+                case "description":
+                    repoData.description = nextStringOrNull(reader);
+                    break;
+                case "private":
+                    repoData.isPrivate = reader.nextBoolean();
+                    break;
+                case "languages_url":
+                    repoData.languagesUrl = nextStringOrNull(reader);
+                    break;
+                case "pushed_at":
+                    repoData.pushedAt = nextStringOrNull(reader);
+                    break;
+                case "size":
+                    repoData.size = reader.nextLong();
+                    break;
+                case "stargazers_count":
+                    repoData.stargazerCount = reader.nextInt();
+                    break;
+                case "owner":
+                    readOwner(reader, repoData);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        return repoData;
+    }
+
+    private static void readOwner(JsonReader reader, RepoData repoData) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return;
+        }
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("login".equals(name)) {
+                repoData.owner = nextStringOrNull(reader);
+            } else if ("type".equals(name)) {
+                repoData.ownerType = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    static List<LanguageData> readLanguages(JsonReader reader) throws IOException {
+        List<LanguageData> results = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            LanguageData languageData = new LanguageData();
+            languageData.language = reader.nextName();
+            languageData.byteCount = reader.nextLong();
+
+            results.add(languageData);
+        }
+        reader.endObject();
+
+        if (results.isEmpty()) {
+            LanguageData languageData = new LanguageData();
+            languageData.language = "None";
+            languageData.byteCount = 0;
+            results.add(languageData);
+        }
+
+        return results;
+    }
+
+    /**
+     * Reads the response of the GraphQL repositories query.
+     *
+     * @return the endCursor if there is another page, otherwise null
+     */
+    static String readGraphQLRepos(JsonReader reader, List<RepoData> list, String repoUrlPrefix) throws IOException {
+        String nextCursor = null;
+        String errorMessage = null;
+        boolean hasData = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("data".equals(name) && reader.peek() != JsonToken.NULL) {
+                hasData = true;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("viewer".equals(reader.nextName())) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if ("repositories".equals(reader.nextName())) {
+                                nextCursor = readGraphQLRepositoryConnection(reader, list, repoUrlPrefix);
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("errors".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String message = readGraphQLErrorMessage(reader);
+                    if (errorMessage == null) {
+                        errorMessage = message;
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasData && errorMessage != null) {
+            throw new IOException("GraphQL error: " + errorMessage);
+        }
+
+        return nextCursor;
+    }
+
+    private static String readGraphQLRepositoryConnection(JsonReader reader, List<RepoData> list, String repoUrlPrefix) throws IOException {
+        boolean hasNextPage = false;
+        String endCursor = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("pageInfo".equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if ("hasNextPage".equals(field)) {
+                        hasNextPage = reader.nextBoolean();
+                    } else if ("endCursor".equals(field)) {
+                        endCursor = nextStringOrNull(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("nodes".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    list.add(readGraphQLRepo(reader, repoUrlPrefix));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return hasNextPage ? endCursor : null;
+    }
+
+    private static RepoData readGraphQLRepo(JsonReader reader, String repoUrlPrefix) throws IOException {
+        RepoData repoData = new RepoData();
+        repoData.onServer = true;
+        repoData.languages = new ArrayList<>();
+        boolean languagesTruncated = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            switch (name) {
+                case "databaseId":
+                    repoData.serverId = Long.toString(reader.nextLong());
+                    break;
+                case "name":
+                    repoData.name = nextStringOrNull(reader);
+                    break;
+                case "description":
+                    repoData.description = nextStringOrNull(reader);
+                    break;
+                case "pushedAt":
+                    repoData.pushedAt = nextStringOrNull(reader);
+                    break;
+                case "diskUsage":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        repoData.size = reader.nextLong();
+                    }
+                    break;
+                case "isPrivate":
+                    repoData.isPrivate = reader.nextBoolean();
+                    break;
+                case "stargazers":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if ("totalCount".equals(reader.nextName())) {
+                            repoData.stargazerCount = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "owner":
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if ("login".equals(field)) {
+                            repoData.owner = nextStringOrNull(reader);
+                        } else if ("__typename".equals(field)) {
+                            repoData.ownerType = nextStringOrNull(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    break;
+                case "languages":
+                    languagesTruncated = readGraphQLLanguages(reader, repoData.languages);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        repoData.languagesUrl = repoUrlPrefix + repoData.owner + '/' + repoData.name + "/languages";
+        if (languagesTruncated) {
+            repoData.languages = null;
+        } else if (repoData.languages.isEmpty()) {
+            LanguageData languageData = new LanguageData();
+            languageData.language = "None";
+            languageData.byteCount = 0;
+            repoData.languages.add(languageData);
+        }
+
+        return repoData;
+    }
+
+    /**
+     * @return true if the repo has more languages than were read
+     */
+    private static boolean readGraphQLLanguages(JsonReader reader, List<LanguageData> languages) throws IOException {
+        boolean hasNextPage = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("pageInfo".equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("hasNextPage".equals(reader.nextName())) {
+                        hasNextPage = reader.nextBoolean();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if ("edges".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    LanguageData languageData = new LanguageData();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if ("size".equals(field)) {
+                            languageData.byteCount = reader.nextLong();
+                        } else if ("node".equals(field)) {
+                            reader.beginObject();
+                            while (reader.hasNext()) {
+                                if ("name".equals(reader.nextName())) {
+                                    languageData.language = nextStringOrNull(reader);
+                                } else {
+                                    reader.skipValue();
+                                }
+                            }
+                            reader.endObject();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+
+                    if (languageData.language != null) {
+                        languages.add(languageData);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return hasNextPage;
+    }
+
+    private static String readGraphQLErrorMessage(JsonReader reader) throws IOException {
+        String message = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("message".equals(reader.nextName())) {
+                message = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return message;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        return reader.nextString();
+    }
+}
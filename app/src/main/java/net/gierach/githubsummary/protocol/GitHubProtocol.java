@@ -1,16 +1,19 @@
 package net.gierach.githubsummary.protocol;
 
+import android.os.SystemClock;
 import android.util.Base64;
+import android.util.JsonReader;
 import android.util.Log;
 
 import net.gierach.githubsummary.model.LanguageData;
 import net.gierach.githubsummary.model.RepoData;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -18,6 +21,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import okhttp3.Call;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -34,109 +38,211 @@ public class GitHubProtocol {
 
     private static final String GITHUB_PROD_HOST = "https://api.github.com";
 
+    private static final String HEADER_AUTHORIZATION = "Authorization";
+    private static final String HEADER_LINK = "Link";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final int REPOS_PER_PAGE = 100;
+    private static final int GRAPHQL_REPOS_PER_PAGE = 50;
+    private static final int GRAPHQL_LANGUAGES_PER_REPO = 25;
+
+    private static final String GRAPHQL_REPOS_QUERY =
+            "query($first:Int!,$after:String,$languages:Int!){viewer{repositories(first:$first,after:$after," +
+                    "affiliations:[OWNER,COLLABORATOR,ORGANIZATION_MEMBER]){" +
+                    "pageInfo{hasNextPage endCursor}" +
+                    "nodes{databaseId name description isPrivate pushedAt diskUsage stargazers{totalCount}" +
+                    "owner{__typename login}" +
+                    "languages(first:$languages,orderBy:{field:SIZE,direction:DESC}){pageInfo{hasNextPage} edges{size node{name}}}}}}}";
+
+    private static volatile String sApiHost = GITHUB_PROD_HOST;
+
+    private static final SingleFlight sSingleFlight = new SingleFlight();
+
+    /**
+     * Points the protocol at a different API host, for example a local stand-in server. Pass null to restore
+     * the production host.
+     */
+    public static void setApiHost(String apiHost) {
+        sApiHost = apiHost != null ? apiHost : GITHUB_PROD_HOST;
+    }
+
+    public static String getApiHost() {
+        return sApiHost;
+    }
+
 
     public static String getUserDisplayNameBasicAuthentication(String username, String password) throws IOException, GitHubProtocolException {
         HashMap<String, String> headerMap = new HashMap<>();
 
         addBasicAuthorizationToHeaderMap(headerMap, username, password);
 
-        try {
-            URL url = new URL(GITHUB_PROD_HOST + "/user");
-            String jsonStr = getJsonObjectOkio(url, headerMap);
-            Log.d(TAG, "::getUserDisplayName GET response body: " + jsonStr);
-            JSONObject jsonObject = new JSONObject(jsonStr);
+        URL url = new URL(sApiHost + "/user");
+        String name = getJsonOkio(url, headerMap, username, GitHubRateLimiter.PRIORITY_HIGH, null, null, new ResponseParser<String>() {
+            @Override
+            public String parse(JsonReader reader) throws IOException {
+                return GitHubJsonParser.readUserDisplayName(reader);
+            }
+        });
 
-            return jsonObject.getString("name");
-        } catch (JSONException e) {
+        return name != null ? name : "";
+    }
 
-        }
+    public static String getUserReposUrl() {
+        return sApiHost + "/user/repos?per_page=" + REPOS_PER_PAGE;
+    }
+
+    /**
+     * @return the start shared by the urls of every page of the repo list
+     */
+    public static String getUserReposUrlPrefix() {
+        return sApiHost + "/user/repos?";
+    }
 
-        return "";
+    /**
+     * Fetches a single page of the authenticated user's repositories and appends them to list. If the page has not
+     * changed since the validators in page were stored, nothing is added and page.notModified is set.
+     *
+     * @param page the page to fetch, starting with {@link #getUserReposUrl()}
+     * @return the url of the next page taken from the Link header, or null if this was the last page
+     */
+    public static String getUserRepos(ConditionalRequest page, final List<RepoData> list, String username, String password) throws IOException, GitHubProtocolException {
+        return getUserRepos(page, list, username, password, null);
     }
 
-    public static boolean getUserRepos(List<RepoData> list, String username, String password) throws IOException, GitHubProtocolException {
-        boolean finished = true;
+    /**
+     * @param cancellationToken aborts the request when cancelled, may be null
+     */
+    public static String getUserRepos(ConditionalRequest page, final List<RepoData> list, String username, String password, CancellationToken cancellationToken) throws IOException, GitHubProtocolException {
         HashMap<String, String> headerMap = new HashMap<>();
 
         addBasicAuthorizationToHeaderMap(headerMap, username, password);
 
-        try {
-            URL url = new URL(GITHUB_PROD_HOST + "/user/repos?per_page=100");
-            String jsonStr = getJsonObjectOkio(url, headerMap);
-            Log.d(TAG, "::getUserRepos GET response body: " + jsonStr);
-            JSONArray jsonArray = new JSONArray(jsonStr);
-
-            for (int i = 0; i < jsonArray.length(); ++i) {
-                JSONObject object = jsonArray.getJSONObject(i);
-
-                RepoData repoData = new RepoData();
-                repoData.description = object.getString("description");
-                repoData.isPrivate = object.getBoolean("private");
-                repoData.serverId = Integer.toString(object.getInt("id"));
-                repoData.onServer = true;
-                repoData.languagesUrl = object.getString("languages_url");
-                repoData.name = object.getString("name");
-                repoData.stargazerCount = object.getInt("stargazers_count");
-                JSONObject owner = object.getJSONObject("owner");
-                repoData.owner = owner.getString("login");
-                repoData.ownerType = owner.getString("type");
-
-                list.add(repoData);
+        URL url = new URL(page.url);
+        List<RepoData> repos = getJsonOkio(url, headerMap, username, GitHubRateLimiter.PRIORITY_HIGH, page, cancellationToken, new ResponseParser<List<RepoData>>() {
+            @Override
+            public List<RepoData> parse(JsonReader reader) throws IOException {
+                ArrayList<RepoData> repos = new ArrayList<>();
+                GitHubJsonParser.readRepoArray(reader, repos);
+                return repos;
             }
-        } catch (JSONException e) {
+        });
+        if (repos != null) {
+            Log.d(TAG, "::getUserRepos parsed " + repos.size() + " repo(s)");
+            list.addAll(repos);
+        }
+
+        return parseNextPageUrl(page.link);
+    }
 
+    /**
+     * Parses a Link header of the form {@code <url>; rel="next", <url>; rel="last"} and returns the next url.
+     */
+    static String parseNextPageUrl(String linkHeader) {
+        if (linkHeader == null) {
+            return null;
         }
 
-        return finished;
+        for (String link : linkHeader.split(",")) {
+            String[] parts = link.split(";");
+            if (parts.length < 2) {
+                continue;
+            }
+            String target = parts[0].trim();
+            if (!target.startsWith("<") || !target.endsWith(">")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; ++i) {
+                String param = parts[i].trim();
+                if (param.equals("rel=\"next\"") || param.equals("rel=next")) {
+                    return target.substring(1, target.length() - 1);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fetches a page of the authenticated user's repositories together with their language breakdown using a
+     * single GraphQL v4 request. The returned RepoData objects have a languagesUrl matching the REST api and their
+     * languages field set, unless the repo has more languages than the query returns; it is null then.
+     *
+     * @param cursor the endCursor of the previous page, or null for the first page
+     * @return the cursor of the next page, or null if this was the last page
+     */
+    public static String getUserReposGraphQL(String cursor, final List<RepoData> list, String username, String password) throws IOException, GitHubProtocolException {
+        return getUserReposGraphQL(cursor, list, username, password, null);
     }
 
-    public static List<LanguageData> getRepoLanguages(String languageUrl, String username, String password) throws IOException, GitHubProtocolException {
-        List<LanguageData> results = new ArrayList<>();
+    /**
+     * @param cancellationToken aborts the request when cancelled, may be null
+     */
+    public static String getUserReposGraphQL(String cursor, final List<RepoData> list, String username, String password, CancellationToken cancellationToken) throws IOException, GitHubProtocolException {
         HashMap<String, String> headerMap = new HashMap<>();
 
         addBasicAuthorizationToHeaderMap(headerMap, username, password);
 
+        JSONObject body = new JSONObject();
         try {
-            URL url = new URL(languageUrl);
-            String jsonStr = getJsonObjectOkio(url, headerMap);
-            Log.d(TAG, "::getRepoLanguages GET response body: " + jsonStr);
-            JSONObject object = new JSONObject(jsonStr);
-            JSONArray jsonArray = object.names();
+            JSONObject variables = new JSONObject();
+            variables.put("first", GRAPHQL_REPOS_PER_PAGE);
+            variables.put("after", cursor != null ? cursor : JSONObject.NULL);
+            variables.put("languages", GRAPHQL_LANGUAGES_PER_REPO);
+            body.put("query", GRAPHQL_REPOS_QUERY);
+            body.put("variables", variables);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
 
-            if (jsonArray != null) {
+        final String repoUrlPrefix = sApiHost + "/repos/";
+        URL url = new URL(sApiHost + "/graphql");
+        //GraphQL queries do not modify anything, so the POST may be retried like a GET.
+        return postJsonObjectToServerOkio(url, body, headerMap, username, true, cancellationToken, new ResponseParser<String>() {
+            @Override
+            public String parse(JsonReader reader) throws IOException {
+                return GitHubJsonParser.readGraphQLRepos(reader, list, repoUrlPrefix);
+            }
+        });
+    }
 
-                for (int i = 0; i < jsonArray.length(); ++i) {
-                    LanguageData languageData = new LanguageData();
-                    languageData.language = jsonArray.getString(i);
-                    languageData.byteCount = object.getInt(languageData.language);
+    /**
+     * Language fetches are low priority requests, see {@link GitHubRateLimiter}.
+     *
+     * @return the languages of the repo, or null if they have not changed since the validators in languages were stored
+     * @throws GitHubRateLimitException if the fetch has to wait for the rate limit to reset
+     */
+    public static List<LanguageData> getRepoLanguages(ConditionalRequest languages, String username, String password) throws IOException, GitHubProtocolException {
+        return getRepoLanguages(languages, username, password, null);
+    }
 
-                    results.add(languageData);
-                }
-            } else {
-                LanguageData languageData = new LanguageData();
-                languageData.language = "None";
-                languageData.byteCount = 0;
-                results.add(languageData);
-            }
-        } catch (JSONException e) {
+    /**
+     * @param cancellationToken aborts the request when cancelled, may be null
+     */
+    public static List<LanguageData> getRepoLanguages(ConditionalRequest languages, String username, String password, CancellationToken cancellationToken) throws IOException, GitHubProtocolException {
+        HashMap<String, String> headerMap = new HashMap<>();
 
-        }
+        addBasicAuthorizationToHeaderMap(headerMap, username, password);
 
-        return results;
+        URL url = new URL(languages.url);
+        return getJsonOkio(url, headerMap, username, GitHubRateLimiter.PRIORITY_LOW, languages, cancellationToken, new ResponseParser<List<LanguageData>>() {
+            @Override
+            public List<LanguageData> parse(JsonReader reader) throws IOException {
+                return GitHubJsonParser.readLanguages(reader);
+            }
+        });
     }
 
     private static void addBasicAuthorizationToHeaderMap(HashMap<String, String> headerMap, String username, String password) {
         String authorization = username + ':' + password;
         authorization = "Basic " + Base64.encodeToString(authorization.getBytes(CHARSET_UTF8), Base64.NO_WRAP | Base64.URL_SAFE);
 
-        headerMap.put("Authorization", authorization);
+        headerMap.put(HEADER_AUTHORIZATION, authorization);
     }
 
-    private static String postJsonObjectToServerOkio(URL url, JSONObject jsonObject, HashMap<String, String> headerMap) throws IOException, GitHubProtocolException {
-
-        OkHttpClient client = new OkHttpClient();
-
-        Log.d(TAG, "POST " + url + " " + jsonObject.toString());
+    private static <T> T postJsonObjectToServerOkio(URL url, JSONObject jsonObject, HashMap<String, String> headerMap, String account, boolean idempotent, CancellationToken cancellationToken, ResponseParser<T> parser) throws IOException, GitHubProtocolException {
+        Log.d(TAG, "POST " + url);
         byte[] payload = jsonObject.toString().getBytes(CHARSET_UTF8);
         RequestBody requestBody = RequestBody.create(JSON_MIME_TYPE, payload);
         Request.Builder builder = new Request.Builder();
@@ -151,18 +257,78 @@ public class GitHubProtocol {
 
         Request request = builder.build();
 
-        Response response = client.newCall(request).execute();
-        int responseCode = response.code();
-        if (responseCode != 200 && responseCode != 201 && responseCode != 202) {
-            throw new GitHubProtocolException(responseCode, response.message());
-        } else {
-            return new String(response.body().bytes(), CHARSET_UTF8);
+        Response response = execute(request, account, GitHubRateLimiter.RESOURCE_GRAPHQL, GitHubRateLimiter.PRIORITY_HIGH, idempotent, cancellationToken);
+        try {
+            int responseCode = response.code();
+            if (responseCode != 200 && responseCode != 201 && responseCode != 202) {
+                throw new GitHubProtocolException(responseCode, response.message());
+            } else {
+                return parseResponseBody(url, response, parser);
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Parses a response body while it is being read from the socket, without materializing it as a String.
+     */
+    private interface ResponseParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+
+    /**
+     * Result of a GET shared by every caller that coalesced onto it, together with the validators of the response.
+     */
+    private static class SharedResponse<T> {
+        final T result;
+        final ConditionalRequest validators;
+
+        SharedResponse(T result, ConditionalRequest validators) {
+            this.result = result;
+            this.validators = validators;
         }
     }
 
-    private static String getJsonObjectOkio(URL url, HashMap<String, String> headerMap) throws IOException, GitHubProtocolException {
-        OkHttpClient client = new OkHttpClient();
+    /**
+     * Concurrent GETs of the same url with the same credentials and validators share one network call and one
+     * parsed result, so the parsed objects must be treated as read only. The shared call is only cancelled once the
+     * cancellationToken of every caller is; callers with the same credentials belong to the same account.
+     *
+     * @param account the account whose rate limit budget the request is charged to
+     * @param priority one of the {@link GitHubRateLimiter} PRIORITY constants
+     * @param conditional optional validators for a conditional request, updated from the response
+     * @return the parsed response, or null if the server answered 304 Not Modified
+     */
+    private static <T> T getJsonOkio(final URL url, final HashMap<String, String> headerMap, final String account, final int priority, ConditionalRequest conditional,
+                                     final CancellationToken cancellationToken, final ResponseParser<T> parser) throws IOException, GitHubProtocolException {
+        final ConditionalRequest validators = conditional != null ?
+                new ConditionalRequest(conditional.url, conditional.etag, conditional.lastModified, conditional.link) : null;
+
+        String key = url.toString() + '\n' + headerMap.get(HEADER_AUTHORIZATION);
+        if (validators != null) {
+            key += '\n' + validators.etag + '\n' + validators.lastModified;
+        }
+
+        SharedResponse<T> shared = sSingleFlight.execute(key, cancellationToken, new SingleFlight.Fetcher<SharedResponse<T>>() {
+            @Override
+            public SharedResponse<T> fetch(CancellationToken flightCancellationToken) throws IOException, GitHubProtocolException {
+                return new SharedResponse<>(fetchJsonOkio(url, headerMap, account, priority, validators, flightCancellationToken, parser), validators);
+            }
+        });
+
+        if (conditional != null) {
+            conditional.etag = shared.validators.etag;
+            conditional.lastModified = shared.validators.lastModified;
+            conditional.link = shared.validators.link;
+            conditional.notModified = shared.validators.notModified;
+        }
+
+        return shared.result;
+    }
 
+    private static <T> T fetchJsonOkio(URL url, HashMap<String, String> headerMap, String account, int priority, ConditionalRequest conditional,
+                                       CancellationToken cancellationToken, ResponseParser<T> parser) throws IOException, GitHubProtocolException {
         Log.d(TAG, "GET " + url);
 
         Request.Builder builder = new Request.Builder();
@@ -173,18 +339,137 @@ public class GitHubProtocol {
             }
         }
         builder.addHeader("Accept", GITHUB_MIME_TYPE);
+        if (conditional != null) {
+            if (conditional.etag != null) {
+                builder.addHeader(HEADER_IF_NONE_MATCH, conditional.etag);
+            } else if (conditional.lastModified != null) {
+                builder.addHeader(HEADER_IF_MODIFIED_SINCE, conditional.lastModified);
+            }
+        }
         builder.get();
 
         Request request = builder.build();
 
-        Response response = client.newCall(request).execute();
-        int responseCode = response.code();
-        if (responseCode != 200 && responseCode != 201 && responseCode != 202) {
-            throw new GitHubProtocolException(responseCode, response.message());
-        } else {
-            return new String(response.body().bytes(), CHARSET_UTF8);
+        Response response = execute(request, account, GitHubRateLimiter.RESOURCE_CORE, priority, true, cancellationToken);
+        try {
+            int responseCode = response.code();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && conditional != null) {
+                Log.d(TAG, "GET " + url + " not modified");
+                conditional.notModified = true;
+                return null;
+            } else if (responseCode != 200 && responseCode != 201 && responseCode != 202) {
+                throw new GitHubProtocolException(responseCode, response.message());
+            } else {
+                T result = parseResponseBody(url, response, parser);
+
+                if (conditional != null) {
+                    conditional.notModified = false;
+                    conditional.etag = response.header(HEADER_ETAG);
+                    conditional.lastModified = response.header(HEADER_LAST_MODIFIED);
+                    conditional.link = response.header(HEADER_LINK);
+                }
+                return result;
+            }
+        } finally {
+            response.close();
         }
     }
 
+    /**
+     * Executes request, retrying transport errors and transient statuses according to {@link GitHubRetryPolicy}.
+     * Every attempt is charged to the rate limit budget of account. A cancelled cancellationToken aborts the call in
+     * flight and stops further attempts.
+     *
+     * @return the final response, which the caller has to close
+     */
+    private static Response execute(Request request, String account, String resource, int priority, boolean idempotent,
+                                    CancellationToken cancellationToken) throws IOException, GitHubProtocolException {
+        OkHttpClient client = GitHubSession.getInstance().getClient();
+        GitHubRateLimiter rateLimiter = GitHubRateLimiter.getInstance();
+        GitHubRetryPolicy retryPolicy = GitHubRetryPolicy.getInstance();
+        String host = request.url().host();
+        int maxAttempts = retryPolicy.getMaxAttempts(idempotent);
+
+        for (int attempt = 1; ; ++attempt) {
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCancelled();
+            }
+            retryPolicy.checkCircuit(host);
+            rateLimiter.acquire(account, resource, priority, cancellationToken);
+
+            Response response;
+            Call call = client.newCall(request);
+            try {
+                if (cancellationToken != null) {
+                    cancellationToken.register(call);
+                }
+                response = call.execute();
+            } catch (IOException e) {
+                if (cancellationToken != null) {
+                    //A cancelled call fails with a plain IOException and must not count against the host.
+                    cancellationToken.throwIfCancelled();
+                }
+                retryPolicy.onFailure(host);
+                if (attempt >= maxAttempts || !retryPolicy.canRetry(e, idempotent)) {
+                    throw e;
+                }
+                long delay = retryPolicy.getRetryDelayMs(attempt, null);
+                Log.w(TAG, request.method() + " " + request.url() + " failed, retry " + attempt + " in " + delay + "ms", e);
+                retryPolicy.sleep(delay, cancellationToken);
+                continue;
+            } finally {
+                if (cancellationToken != null) {
+                    cancellationToken.unregister(call);
+                }
+            }
 
+            if (response.code() >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                retryPolicy.onFailure(host);
+            } else {
+                retryPolicy.onSuccess(host);
+            }
+
+            try {
+                rateLimiter.onResponse(account, resource, response);
+            } catch (GitHubRateLimitException e) {
+                response.close();
+                throw e;
+            }
+
+            if (attempt < maxAttempts && retryPolicy.canRetry(response, idempotent)) {
+                long delay = retryPolicy.getRetryDelayMs(attempt, response);
+                if (delay >= 0) {
+                    Log.w(TAG, request.method() + " " + request.url() + " returned " + response.code() + ", retry " + attempt + " in " + delay + "ms");
+                    response.close();
+                    retryPolicy.sleep(delay, cancellationToken);
+                    continue;
+                }
+            }
+
+            //Out of attempts or asked to wait too long; the sync is deferred instead of failing as a denied request.
+            long resetTimeMillis = retryPolicy.getRateLimitResetTimeMillis(response);
+            if (resetTimeMillis >= 0) {
+                response.close();
+                throw new GitHubRateLimitException(response.code(), response.message(), resetTimeMillis);
+            }
+
+            return response;
+        }
+    }
+
+    private static <T> T parseResponseBody(URL url, Response response, ResponseParser<T> parser) throws IOException {
+        T result;
+        long start = SystemClock.elapsedRealtime();
+        JsonReader reader = new JsonReader(new InputStreamReader(response.body().source().inputStream(), CHARSET_UTF8));
+        try {
+            result = parser.parse(reader);
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Unexpected JSON in response from " + url, e);
+        } finally {
+            reader.close();
+        }
+        Log.d(TAG, url + " parsed " + response.body().contentLength() + " byte(s) in " + (SystemClock.elapsedRealtime() - start) + "ms");
+
+        return result;
+    }
 }
@@ -0,0 +1,14 @@
+package net.gierach.githubsummary.protocol;
+
+/**
+ * Thrown when the rate limit budget of an account is used up, either as reported by the server or because
+ * {@link GitHubRateLimiter} deferred a low priority request. The request can be retried after resetTimeMillis.
+ */
+public class GitHubRateLimitException extends GitHubProtocolException {
+    public final long resetTimeMillis;
+
+    public GitHubRateLimitException(int httpStatusCode, String httpStatusMessage, long resetTimeMillis) {
+        super(httpStatusCode, httpStatusMessage);
+        this.resetTimeMillis = resetTimeMillis;
+    }
+}
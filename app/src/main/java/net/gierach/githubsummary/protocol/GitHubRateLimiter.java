@@ -0,0 +1,166 @@
+package net.gierach.githubsummary.protocol;
+
+import android.util.Log;
+
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+
+/**
+ * Per account token bucket fed by the X-RateLimit-Limit/Remaining/Reset headers of every response. High priority
+ * requests (repo lists, credential checks) may use the whole budget. Low priority requests (language fetches) leave
+ * a reserve for them, are paced once the budget runs low and are deferred with a {@link GitHubRateLimitException}
+ * when they would have to wait too long, so the caller can resume them after the reset.
+ */
+public class GitHubRateLimiter {
+
+    private static final String TAG = "GitHubRateLimiter";
+
+    public static final int PRIORITY_HIGH = 0;
+    public static final int PRIORITY_LOW = 1;
+
+    public static final String RESOURCE_CORE = "core";
+    public static final String RESOURCE_GRAPHQL = "graphql";
+
+    private static final String HEADER_LIMIT = "X-RateLimit-Limit";
+    private static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    private static final String HEADER_RESET = "X-RateLimit-Reset";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int LOW_PRIORITY_RESERVE = 50;
+    private static final int PACING_THRESHOLD = 200;
+    private static final long MAX_PACING_DELAY_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static class InstanceHolder {
+        public static final GitHubRateLimiter sInstance = new GitHubRateLimiter();
+    }
+
+    public static GitHubRateLimiter getInstance() {
+        return InstanceHolder.sInstance;
+    }
+
+    private static class Bucket {
+        int limit;
+        int remaining;
+        long resetTimeMillis;
+        long nextSlotMillis;
+    }
+
+    private final HashMap<String, Bucket> mBuckets = new HashMap<>();
+
+    private GitHubRateLimiter() {
+
+    }
+
+    private static String key(String account, String resource) {
+        return account + '/' + resource;
+    }
+
+    /**
+     * @return the last known budget of the account, or null if it is unknown or has been reset since.
+     */
+    public synchronized RateLimitBudget getBudget(String account, String resource) {
+        Bucket bucket = mBuckets.get(key(account, resource));
+        if (bucket == null || System.currentTimeMillis() >= bucket.resetTimeMillis) {
+            return null;
+        }
+
+        return new RateLimitBudget(bucket.limit, bucket.remaining, bucket.resetTimeMillis);
+    }
+
+    /**
+     * Takes one request from the budget of the account, sleeping first if low priority requests are being paced.
+     *
+     * @param cancellationToken ends the pacing wait early when cancelled, may be null
+     */
+    public void acquire(String account, String resource, int priority, CancellationToken cancellationToken) throws GitHubRateLimitException, InterruptedIOException {
+        long delay;
+
+        synchronized (this) {
+            Bucket bucket = mBuckets.get(key(account, resource));
+            long now = System.currentTimeMillis();
+            if (bucket == null || now >= bucket.resetTimeMillis) {
+                return;
+            }
+
+            int available = priority == PRIORITY_HIGH ? bucket.remaining : bucket.remaining - LOW_PRIORITY_RESERVE;
+            if (available <= 0) {
+                throw new GitHubRateLimitException(HttpURLConnection.HTTP_FORBIDDEN, "Rate limit budget exhausted", bucket.resetTimeMillis);
+            }
+
+            if (priority == PRIORITY_HIGH || available > PACING_THRESHOLD) {
+                --bucket.remaining;
+                return;
+            }
+
+            long interval = (bucket.resetTimeMillis - now) / available;
+            if (interval > MAX_PACING_DELAY_MS) {
+                throw new GitHubRateLimitException(HttpURLConnection.HTTP_FORBIDDEN, "Deferred until rate limit reset", bucket.resetTimeMillis);
+            }
+
+            --bucket.remaining;
+            bucket.nextSlotMillis = Math.max(bucket.nextSlotMillis, now) + interval;
+            delay = bucket.nextSlotMillis - now;
+        }
+
+        if (delay > 0) {
+            Log.d(TAG, "::acquire pacing " + account + " for " + delay + "ms");
+            try {
+                if (cancellationToken != null) {
+                    cancellationToken.sleep(delay);
+                } else {
+                    Thread.sleep(delay);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while pacing requests");
+            }
+        }
+    }
+
+    /**
+     * Updates the budget from the response headers and throws if the server rejected the request because the
+     * rate limit was exceeded.
+     */
+    public void onResponse(String account, String resource, Response response) throws GitHubRateLimitException {
+        String limitHeader = response.header(HEADER_LIMIT);
+        String remainingHeader = response.header(HEADER_REMAINING);
+        String resetHeader = response.header(HEADER_RESET);
+        if (limitHeader == null || remainingHeader == null || resetHeader == null) {
+            return;
+        }
+
+        int remaining;
+        long resetTimeMillis;
+        synchronized (this) {
+            try {
+                remaining = Integer.parseInt(remainingHeader);
+                resetTimeMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(resetHeader));
+
+                String key = key(account, resource);
+                Bucket bucket = mBuckets.get(key);
+                if (bucket == null) {
+                    bucket = new Bucket();
+                    mBuckets.put(key, bucket);
+                }
+                bucket.limit = Integer.parseInt(limitHeader);
+                //Responses of requests running in parallel arrive out of order, keep the lowest count of a window.
+                if (bucket.resetTimeMillis != resetTimeMillis || remaining < bucket.remaining) {
+                    bucket.remaining = remaining;
+                }
+                bucket.resetTimeMillis = resetTimeMillis;
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "::onResponse invalid rate limit headers", e);
+                return;
+            }
+        }
+
+        int code = response.code();
+        if ((code == HttpURLConnection.HTTP_FORBIDDEN || code == HTTP_TOO_MANY_REQUESTS) && remaining == 0) {
+            throw new GitHubRateLimitException(code, response.message(), resetTimeMillis);
+        }
+    }
+}
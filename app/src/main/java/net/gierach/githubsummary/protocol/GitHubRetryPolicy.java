@@ -0,0 +1,199 @@
+package net.gierach.githubsummary.protocol;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+
+/**
+ * Decides whether a failed request is retried and how long to wait first. Delays grow exponentially with
+ * jitter unless the server sent a Retry-After header. Idempotent requests are retried on any transport error or
+ * transient status; other requests only when the server cannot have processed them. Each host has a circuit
+ * breaker that fails requests fast after repeated transport errors or 5xx responses.
+ */
+public class GitHubRetryPolicy {
+
+    private static final String TAG = "GitHubRetryPolicy";
+
+    private static final String HEADER_RETRY_AFTER = "Retry-After";
+    private static final String HEADER_RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+    private static final String HEADER_RATE_LIMIT_RESET = "X-RateLimit-Reset";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int MAX_ATTEMPTS_IDEMPOTENT = 4;
+    private static final int MAX_ATTEMPTS_NON_IDEMPOTENT = 2;
+    private static final long BASE_DELAY_MS = 500;
+    private static final long MAX_DELAY_MS = TimeUnit.SECONDS.toMillis(8);
+    private static final long MAX_RETRY_AFTER_MS = TimeUnit.SECONDS.toMillis(60);
+    //Wait after a rate limit response that does not say for how long.
+    private static final long DEFAULT_RATE_LIMIT_WAIT_MS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final int CIRCUIT_FAILURE_THRESHOLD = 5;
+    private static final long CIRCUIT_OPEN_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static class InstanceHolder {
+        public static final GitHubRetryPolicy sInstance = new GitHubRetryPolicy();
+    }
+
+    public static GitHubRetryPolicy getInstance() {
+        return InstanceHolder.sInstance;
+    }
+
+    private static class CircuitBreaker {
+        int consecutiveFailures;
+        long openUntil;
+    }
+
+    private final HashMap<String, CircuitBreaker> mCircuitBreakers = new HashMap<>();
+    private final Random mRandom = new Random();
+
+    private GitHubRetryPolicy() {
+
+    }
+
+    public int getMaxAttempts(boolean idempotent) {
+        return idempotent ? MAX_ATTEMPTS_IDEMPOTENT : MAX_ATTEMPTS_NON_IDEMPOTENT;
+    }
+
+    /**
+     * @throws IOException if the circuit of host is open
+     */
+    public synchronized void checkCircuit(String host) throws IOException {
+        CircuitBreaker breaker = mCircuitBreakers.get(host);
+        if (breaker != null && SystemClock.elapsedRealtime() < breaker.openUntil) {
+            throw new IOException("Circuit open for " + host + " after " + breaker.consecutiveFailures + " failure(s)");
+        }
+    }
+
+    /**
+     * Closes every circuit, forgetting the failures counted so far.
+     */
+    public synchronized void resetCircuits() {
+        mCircuitBreakers.clear();
+    }
+
+    public synchronized void onSuccess(String host) {
+        mCircuitBreakers.remove(host);
+    }
+
+    /**
+     * Counts a transport error or 5xx response. Once the threshold is reached every further failure, including the
+     * first trial request after the circuit closes again, reopens it.
+     */
+    public synchronized void onFailure(String host) {
+        CircuitBreaker breaker = mCircuitBreakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            mCircuitBreakers.put(host, breaker);
+        }
+
+        if (++breaker.consecutiveFailures >= CIRCUIT_FAILURE_THRESHOLD) {
+            Log.w(TAG, "::onFailure opening circuit for " + host);
+            breaker.openUntil = SystemClock.elapsedRealtime() + CIRCUIT_OPEN_MS;
+        }
+    }
+
+    public boolean canRetry(IOException e, boolean idempotent) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        return idempotent || e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException;
+    }
+
+    public boolean canRetry(Response response, boolean idempotent) {
+        int code = response.code();
+        boolean hasRetryAfter = response.header(HEADER_RETRY_AFTER) != null;
+        if (code == HTTP_TOO_MANY_REQUESTS || code == HttpURLConnection.HTTP_UNAVAILABLE) {
+            return true;
+        } else if (code == HttpURLConnection.HTTP_FORBIDDEN) {
+            //Secondary rate limits are signaled with 403 and a Retry-After header; other 403s are final.
+            return hasRetryAfter;
+        } else if (idempotent) {
+            return code == HttpURLConnection.HTTP_CLIENT_TIMEOUT || code == HttpURLConnection.HTTP_INTERNAL_ERROR ||
+                    code == HttpURLConnection.HTTP_BAD_GATEWAY || code == HttpURLConnection.HTTP_GATEWAY_TIMEOUT;
+        }
+
+        return false;
+    }
+
+    /**
+     * @param attempt the attempt that just failed, starting with 1
+     * @return the delay before the next attempt, or -1 if the server asked to wait longer than is worth blocking
+     */
+    public long getRetryDelayMs(int attempt, Response response) {
+        String retryAfter = response != null ? response.header(HEADER_RETRY_AFTER) : null;
+        if (retryAfter != null) {
+            try {
+                long delay = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+                return delay <= MAX_RETRY_AFTER_MS ? Math.max(delay, 0) : -1;
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "::getRetryDelayMs ignoring Retry-After " + retryAfter);
+            }
+        }
+
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << Math.min(attempt - 1, 16));
+        long jitter;
+        synchronized (mRandom) {
+            jitter = (long) (mRandom.nextDouble() * (ceiling / 2));
+        }
+        return ceiling / 2 + jitter;
+    }
+
+    /**
+     * A 429, or a 403 with a Retry-After header or an exhausted X-RateLimit-Remaining, rejects the request for a
+     * primary or secondary rate limit. Other 403s mean the credentials lack access.
+     *
+     * @return the wall clock time after which the request may be sent again, or -1 if the response is no rate limit
+     */
+    public long getRateLimitResetTimeMillis(Response response) {
+        int code = response.code();
+        String retryAfter = response.header(HEADER_RETRY_AFTER);
+        boolean exhausted = "0".equals(response.header(HEADER_RATE_LIMIT_REMAINING));
+        if (code != HTTP_TOO_MANY_REQUESTS && (code != HttpURLConnection.HTTP_FORBIDDEN || (retryAfter == null && !exhausted))) {
+            return -1;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            if (retryAfter != null) {
+                return now + Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())), 0);
+            }
+            String reset = response.header(HEADER_RATE_LIMIT_RESET);
+            if (exhausted && reset != null) {
+                return Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(reset.trim())), now);
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "::getRateLimitResetTimeMillis ignoring invalid rate limit headers", e);
+        }
+
+        return now + DEFAULT_RATE_LIMIT_WAIT_MS;
+    }
+
+    /**
+     * @param cancellationToken ends the wait early when cancelled, may be null
+     * @throws InterruptedIOException if interrupted or cancelled while waiting
+     */
+    public void sleep(long delayMs, CancellationToken cancellationToken) throws InterruptedIOException {
+        try {
+            if (cancellationToken != null) {
+                cancellationToken.sleep(delayMs);
+            } else {
+                Thread.sleep(delayMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+}
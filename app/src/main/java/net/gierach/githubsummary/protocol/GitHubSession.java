@@ -0,0 +1,167 @@
+package net.gierach.githubsummary.protocol;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Process wide HTTP session used for all GitHub requests. Sharing a single OkHttpClient keeps the
+ * connection pool, TLS session cache and dispatcher alive between calls so that a sync only pays for
+ * the TCP and TLS handshakes once per host.
+ */
+public class GitHubSession {
+
+    private static final String TAG = "GitHubSession";
+
+    private static final long DEFAULT_CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(15);
+    private static final long DEFAULT_READ_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long DEFAULT_WRITE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static class InstanceHolder {
+        public static final GitHubSession sInstance = new GitHubSession();
+    }
+
+    public static GitHubSession getInstance() {
+        return InstanceHolder.sInstance;
+    }
+
+    private OkHttpClient mClient;
+
+    private long mConnectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+    private long mReadTimeoutMs = DEFAULT_READ_TIMEOUT_MS;
+    private long mWriteTimeoutMs = DEFAULT_WRITE_TIMEOUT_MS;
+
+    private GitHubSession() {
+
+    }
+
+    public synchronized OkHttpClient getClient() {
+        if (mClient == null) {
+            mClient = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS, TimeUnit.MILLISECONDS))
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .connectTimeout(mConnectTimeoutMs, TimeUnit.MILLISECONDS)
+                    .readTimeout(mReadTimeoutMs, TimeUnit.MILLISECONDS)
+                    .writeTimeout(mWriteTimeoutMs, TimeUnit.MILLISECONDS)
+                    .eventListenerFactory(TimingEventListener.FACTORY)
+                    .build();
+        }
+
+        return mClient;
+    }
+
+    /**
+     * Changes the timeouts used for subsequent requests. The connection pool and dispatcher of the current
+     * client are kept so established connections remain usable.
+     */
+    public synchronized void setTimeouts(long connectTimeout, long readTimeout, long writeTimeout, TimeUnit unit) {
+        mConnectTimeoutMs = unit.toMillis(connectTimeout);
+        mReadTimeoutMs = unit.toMillis(readTimeout);
+        mWriteTimeoutMs = unit.toMillis(writeTimeout);
+
+        if (mClient != null) {
+            mClient = mClient.newBuilder()
+                    .connectTimeout(mConnectTimeoutMs, TimeUnit.MILLISECONDS)
+                    .readTimeout(mReadTimeoutMs, TimeUnit.MILLISECONDS)
+                    .writeTimeout(mWriteTimeoutMs, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+    public synchronized void evictIdleConnections() {
+        if (mClient != null) {
+            mClient.connectionPool().evictAll();
+        }
+    }
+
+    /**
+     * Cancels outstanding calls, closes pooled connections and stops the dispatcher threads. Calling it again is
+     * a no-op, and the next call to {@link #getClient()} lazily creates a fresh client.
+     */
+    public synchronized void shutdown() {
+        if (mClient != null) {
+            Log.d(TAG, "::shutdown closing " + mClient.connectionPool().connectionCount() + " pooled connection(s)");
+            mClient.dispatcher().cancelAll();
+            mClient.connectionPool().evictAll();
+            mClient.dispatcher().executorService().shutdown();
+            mClient = null;
+        }
+    }
+
+    /**
+     * Logs per request timing, including how long was spent on DNS, TCP and TLS. Requests that reuse a pooled
+     * connection report no connect time at all.
+     */
+    private static class TimingEventListener extends EventListener {
+
+        static final EventListener.Factory FACTORY = new EventListener.Factory() {
+            @Override
+            public EventListener create(Call call) {
+                return new TimingEventListener();
+            }
+        };
+
+        private long mCallStart;
+        private long mConnectStart;
+        private long mSecureConnectStart;
+        private long mConnectMs = 0;
+        private long mTlsMs = 0;
+
+        @Override
+        public void callStart(Call call) {
+            mCallStart = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            mConnectStart = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            mSecureConnectStart = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            mTlsMs = SystemClock.elapsedRealtime() - mSecureConnectStart;
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            mConnectMs = SystemClock.elapsedRealtime() - mConnectStart;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            log(call, "done");
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            log(call, "failed");
+        }
+
+        private void log(Call call, String result) {
+            long total = SystemClock.elapsedRealtime() - mCallStart;
+            Log.d(TAG, call.request().method() + ' ' + call.request().url().encodedPath() + ' ' + result +
+                    " total=" + total + "ms connect=" + mConnectMs + "ms tls=" + mTlsMs + "ms" +
+                    (mConnectMs == 0 ? " (pooled)" : ""));
+        }
+    }
+}
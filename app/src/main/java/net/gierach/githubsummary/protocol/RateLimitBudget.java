@@ -0,0 +1,20 @@
+package net.gierach.githubsummary.protocol;
+
+/**
+ * Snapshot of the request budget of one account as last reported by the X-RateLimit-* response headers.
+ */
+public class RateLimitBudget {
+    public final int limit;
+    public final int remaining;
+    public final long resetTimeMillis;
+
+    public RateLimitBudget(int limit, int remaining, long resetTimeMillis) {
+        this.limit = limit;
+        this.remaining = remaining;
+        this.resetTimeMillis = resetTimeMillis;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= resetTimeMillis;
+    }
+}
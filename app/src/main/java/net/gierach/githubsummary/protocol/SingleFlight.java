@@ -0,0 +1,165 @@
+package net.gierach.githubsummary.protocol;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+
+/**
+ * Coalesces concurrent executions with the same key: the first caller performs the work and every caller that
+ * arrives while it is in flight waits for and shares its result or exception. Nothing is cached once the
+ * flight has landed.
+ * <p>
+ * The work runs with a token of its own. A caller whose token is cancelled stops waiting right away, while the
+ * work is only cancelled once every caller has given up on it; until then the first caller keeps performing it
+ * for the others and only then fails as cancelled.
+ */
+class SingleFlight {
+
+    private static final String TAG = "SingleFlight";
+
+    interface Fetcher<T> {
+        T fetch(CancellationToken cancellationToken) throws IOException, GitHubProtocolException;
+    }
+
+    private static class Flight {
+        final CancellationToken cancellationToken = new CancellationToken();
+        //Guarded by the flight.
+        int waiters = 1;
+        boolean landed;
+        Object result;
+        Exception exception;
+    }
+
+    private class Waiter implements CancellationToken.Listener {
+        final String key;
+        final Flight flight;
+        //Guarded by the flight.
+        boolean left;
+
+        Waiter(String key, Flight flight) {
+            this.key = key;
+            this.flight = flight;
+        }
+
+        @Override
+        public void onCancelled() {
+            leave();
+        }
+
+        void leave() {
+            boolean abandoned;
+            synchronized (flight) {
+                if (left || flight.landed) {
+                    return;
+                }
+                left = true;
+                abandoned = --flight.waiters == 0;
+                flight.notifyAll();
+            }
+
+            if (abandoned) {
+                synchronized (mFlights) {
+                    if (mFlights.get(key) == flight) {
+                        mFlights.remove(key);
+                    }
+                }
+                Log.d(TAG, "::leave every caller cancelled, cancelling the flight");
+                flight.cancellationToken.cancel();
+            }
+        }
+    }
+
+    private final HashMap<String, Flight> mFlights = new HashMap<>();
+
+    /**
+     * @param cancellationToken the token of this caller, may be null
+     */
+    @SuppressWarnings("unchecked")
+    <T> T execute(String key, CancellationToken cancellationToken, Fetcher<T> fetcher) throws IOException, GitHubProtocolException {
+        Flight flight = null;
+        boolean leader = false;
+        synchronized (mFlights) {
+            Flight current = mFlights.get(key);
+            if (current != null) {
+                synchronized (current) {
+                    //A flight every caller left is being cancelled, it is not joined.
+                    if (current.waiters > 0) {
+                        ++current.waiters;
+                        flight = current;
+                    }
+                }
+            }
+            if (flight == null) {
+                flight = new Flight();
+                mFlights.put(key, flight);
+                leader = true;
+            }
+        }
+
+        Waiter waiter = new Waiter(key, flight);
+        if (cancellationToken != null) {
+            cancellationToken.addListener(waiter);
+        }
+        try {
+            if (leader) {
+                Object result = null;
+                Exception exception = null;
+                try {
+                    result = fetcher.fetch(flight.cancellationToken);
+                } catch (IOException | GitHubProtocolException | RuntimeException e) {
+                    exception = e;
+                } finally {
+                    synchronized (mFlights) {
+                        if (mFlights.get(key) == flight) {
+                            mFlights.remove(key);
+                        }
+                    }
+                    synchronized (flight) {
+                        flight.result = result;
+                        flight.exception = exception;
+                        flight.landed = true;
+                        flight.notifyAll();
+                    }
+                }
+            } else {
+                boolean interrupted = false;
+                synchronized (flight) {
+                    while (!flight.landed && !waiter.left) {
+                        try {
+                            flight.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                            break;
+                        }
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                    waiter.leave();
+                    throw new InterruptedIOException("Interrupted while waiting for a coalesced request");
+                }
+                Log.d(TAG, "::execute shared an in-flight result");
+            }
+        } finally {
+            if (cancellationToken != null) {
+                cancellationToken.removeListener(waiter);
+            }
+        }
+
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCancelled();
+        }
+
+        if (flight.exception instanceof IOException) {
+            throw (IOException) flight.exception;
+        } else if (flight.exception instanceof GitHubProtocolException) {
+            throw (GitHubProtocolException) flight.exception;
+        } else if (flight.exception != null) {
+            throw (RuntimeException) flight.exception;
+        }
+
+        return (T) flight.result;
+    }
+}
@@ -9,6 +9,7 @@ import net.gierach.structured_provider.StructuredProviderContract;
 public class ReposContract extends StructuredProviderContract {
 
     public static final String AUTHORITY = "net.gierach.githubsummary";
+    public static final Uri AUTHORITY_URI = Uri.parse(ContentResolver.SCHEME_CONTENT + "://" + AUTHORITY);
 
     /**
      * Builds a content type String
@@ -74,6 +75,11 @@ public class ReposContract extends StructuredProviderContract {
         String LANGUAGES_URL = "languages_url";
         String ON_SERVER = "on_server";
         String NEED_LANG_SYNC = "need_lang_sync";
+        String PAGE_URL = "page_url";
+        String PUSHED_AT = "pushed_at";
+        String SIZE = "size";
+        String LANG_SYNCED_AT = "lang_synced_at";
+        String CONTENT_HASH = "content_hash";
     }
 
     public static class Repos {
@@ -99,6 +105,37 @@ public class ReposContract extends StructuredProviderContract {
         public static final Uri CONTENT_URI = buildContentUri(PATH);
     }
 
+    public interface EtagColumns extends BaseColumns {
+        String USER_ID = "user_id";
+        String URL = "url";
+        String ETAG = "etag";
+        String LAST_MODIFIED = "last_modified";
+        String LINK = "link";
+    }
+
+    public static class Etags {
+        public static final String TABLE_NAME = "etags";
+        public static final String PATH = "etags";
+        public static final String CONTENT_TYPE = buildContentType(PATH);
+        public static final String ENTRY_CONTENT_TYPE = buildEntryContentType(PATH);
+        public static final Uri CONTENT_URI = buildContentUri(PATH);
+    }
+
+    public interface SyncCheckpointColumns extends BaseColumns {
+        String USER_ID = "user_id";
+        String BACKEND = "backend";
+        String NEXT_PAGE = "next_page";
+        String UPDATED_AT = "updated_at";
+    }
+
+    public static class SyncCheckpoints {
+        public static final String TABLE_NAME = "sync_checkpoints";
+        public static final String PATH = "sync_checkpoints";
+        public static final String CONTENT_TYPE = buildContentType(PATH);
+        public static final String ENTRY_CONTENT_TYPE = buildEntryContentType(PATH);
+        public static final Uri CONTENT_URI = buildContentUri(PATH);
+    }
+
     public interface LanguageCountViewColumns extends LanguageColumns {
         String USER_ID = "user_id";
         String REPO_COUNT = "repo_count";
@@ -2,9 +2,11 @@ package net.gierach.githubsummary.provider;
 
 import android.content.Context;
 
+import net.gierach.githubsummary.provider.tables.EtagsTable;
 import net.gierach.githubsummary.provider.tables.LanguageRepoMapTable;
 import net.gierach.githubsummary.provider.tables.LanguagesTable;
 import net.gierach.githubsummary.provider.tables.ReposTable;
+import net.gierach.githubsummary.provider.tables.SyncCheckpointsTable;
 import net.gierach.githubsummary.provider.tables.UserAccountsTable;
 import net.gierach.githubsummary.provider.views.LanguageCountViewHandler;
 import net.gierach.githubsummary.provider.views.RepoLanguageViewHandler;
@@ -14,7 +16,7 @@ import net.gierach.structured_provider.StructuredContentProvider;
 
 public class ReposProvider extends StructuredContentProvider {
 
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 7;
 
     private static class ReposDatabaseOpenHelper extends DatabaseOpenHelper {
 
@@ -31,6 +33,8 @@ public class ReposProvider extends StructuredContentProvider {
             graph.addTableHandler(LanguagesTable.getInstance());
             graph.addTableHandler(LanguageRepoMapTable.getInstance());
             graph.addTableHandler(UserAccountsTable.getInstance());
+            graph.addTableHandler(EtagsTable.getInstance());
+            graph.addTableHandler(SyncCheckpointsTable.getInstance());
 
             graph.addViewHandler(LanguageCountViewHandler.getInstance());
             graph.addViewHandler(RepoLanguageViewHandler.getInstance());
@@ -51,6 +55,8 @@ public class ReposProvider extends StructuredContentProvider {
         registerPatterns(ReposContract.LanguageCountView.PATH, LanguageCountViewHandler.getInstance());
         registerPatterns(ReposContract.RepoLanguageView.PATH, RepoLanguageViewHandler.getInstance());
         registerPatterns(ReposContract.UserAccounts.PATH, UserAccountsTable.getInstance());
+        registerPatterns(ReposContract.Etags.PATH, EtagsTable.getInstance());
+        registerPatterns(ReposContract.SyncCheckpoints.PATH, SyncCheckpointsTable.getInstance());
     }
 
     @Override
@@ -0,0 +1,73 @@
+package net.gierach.githubsummary.provider.tables;
+
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.EtagColumns;
+import net.gierach.githubsummary.provider.ReposContract.Etags;
+import net.gierach.structured_provider.ProviderContext;
+import net.gierach.structured_provider.TableBasedProviderHandler;
+
+import java.util.ArrayList;
+
+public class EtagsTable extends TableBasedProviderHandler {
+
+    private static class InstanceHolder {
+        public static final EtagsTable sInstance = new EtagsTable();
+    }
+
+    public static EtagsTable getInstance() {
+        return InstanceHolder.sInstance;
+    }
+
+    private EtagsTable() {
+        super(Etags.TABLE_NAME, Etags.CONTENT_TYPE, Etags.ENTRY_CONTENT_TYPE, Etags.CONTENT_URI);
+    }
+
+    @Override
+    protected TableField[] getTableDefinition() {
+        return new TableField[] {
+                new AutonumberPrimaryKeyField(2),
+                new IntegerField(EtagColumns.USER_ID, 2),
+                new TextField(EtagColumns.URL, 2),
+                new TextField(EtagColumns.ETAG, 2),
+                new TextField(EtagColumns.LAST_MODIFIED, 2),
+                new TextField(EtagColumns.LINK, 2)
+        };
+    }
+
+    @Override
+    public String[] getUpgradeIndexCommands(int oldVersion, int newVersion) {
+        ArrayList<String> cmds = null;
+
+        if (oldVersion < 2) {
+            cmds = createArrayListAndAdd(cmds, createIndexCommand(mTableName, "etags_user_id_url_idx", true, EtagColumns.USER_ID, EtagColumns.URL));
+        }
+
+        return arrayListToArrayOrNull(cmds);
+    }
+
+    @Override
+    protected String[] getInsertOrUpdateKeyFields(ProviderContext providerContext) {
+        return new String[] {
+                EtagColumns.USER_ID,
+                EtagColumns.URL
+        };
+    }
+
+    @Override
+    public String[] getUpgradeTriggerCommands(int oldVersion, int newVersion) {
+        ArrayList<String> cmds = null;
+
+        if (oldVersion < 2) {
+            cmds = createArrayListAndAdd(cmds, createDeleteTrigger(ReposContract.UserAccounts.TABLE_NAME, "users_delete_etags_trigger",
+                    "DELETE FROM " + mTableName + " WHERE " + EtagColumns.USER_ID + " = OLD." + ReposContract.UserAccountColumns._ID + ';'
+            ));
+            //A re-inserted repo must fetch its languages again, so forget the validators of deleted repos.
+            cmds.add(createDeleteTrigger(ReposContract.Repos.TABLE_NAME, "repos_delete_etags_trigger",
+                    "DELETE FROM " + mTableName + " WHERE " + EtagColumns.USER_ID + " = OLD." + ReposContract.RepoColumns.USER_ID +
+                            " AND " + EtagColumns.URL + " = OLD." + ReposContract.RepoColumns.LANGUAGES_URL + ';'
+            ));
+        }
+
+        return arrayListToArrayOrNull(cmds);
+    }
+}
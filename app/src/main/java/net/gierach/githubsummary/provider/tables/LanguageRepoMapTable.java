@@ -1,5 +1,7 @@
 package net.gierach.githubsummary.provider.tables;
 
+import android.database.sqlite.SQLiteDatabase;
+
 import net.gierach.githubsummary.provider.ReposContract.LanguageRepoMap;
 import net.gierach.githubsummary.provider.ReposContract.LanguageRepoMapColumns;
 import net.gierach.structured_provider.ProviderContext;
@@ -37,13 +39,34 @@ public class LanguageRepoMapTable extends TableBasedProviderHandler {
         ArrayList<String> cmds = null;
 
         if (oldVersion < 1) {
-            cmds = createArrayListAndAdd(cmds, createIndexCommand(mTableName, "language_repo_map_repo_id_idx", false, LanguageRepoMapColumns.REPO_ID));
+            //The unique key also covers lookups by repo id. Upgraded databases get it with their data commands.
+            cmds = createArrayListAndAdd(cmds, createKeyIndexCommand());
             cmds.add(createIndexCommand(mTableName, "language_repo_map_language_id_idx", false, LanguageRepoMapColumns.LANGUAGE_ID));
         }
 
         return arrayListToArrayOrNull(cmds);
     }
 
+    @Override
+    public String[] getUpgradeDataCommands(int oldVersion, int newVersion, SQLiteDatabase db) {
+        ArrayList<String> cmds = null;
+
+        if (oldVersion < 7) {
+            //Rows written before the key existed may repeat a language of a repo; the first one is kept.
+            cmds = createArrayListAndAdd(cmds, "DELETE FROM " + mTableName + " WHERE " + LanguageRepoMapColumns._ID + " NOT IN (SELECT MIN(" +
+                    LanguageRepoMapColumns._ID + ") FROM " + mTableName + " GROUP BY " + LanguageRepoMapColumns.REPO_ID + ',' +
+                    LanguageRepoMapColumns.LANGUAGE_ID + ");");
+            cmds.add(dropIndexCommand("language_repo_map_repo_id_idx"));
+            cmds.add(createKeyIndexCommand());
+        }
+
+        return arrayListToArrayOrNull(cmds);
+    }
+
+    private String createKeyIndexCommand() {
+        return createIndexCommand(mTableName, "language_repo_map_key_idx", true, LanguageRepoMapColumns.REPO_ID, LanguageRepoMapColumns.LANGUAGE_ID);
+    }
+
     @Override
     protected String[] getInsertOrUpdateKeyFields(ProviderContext providerContext) {
         return new String[] {
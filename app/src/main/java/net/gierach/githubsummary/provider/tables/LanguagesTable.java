@@ -1,5 +1,7 @@
 package net.gierach.githubsummary.provider.tables;
 
+import android.database.DatabaseUtils;
+
 import net.gierach.githubsummary.provider.ReposContract.LanguageColumns;
 import net.gierach.githubsummary.provider.ReposContract.Languages;
 import net.gierach.structured_provider.ProviderContext;
@@ -9,6 +11,14 @@ import java.util.ArrayList;
 
 public class LanguagesTable extends TableBasedProviderHandler {
 
+    //The most common languages on GitHub, so most syncs resolve every language without inserting one.
+    private static final String[] SEED_LANGUAGES = new String[] {
+            "JavaScript", "Python", "Java", "TypeScript", "C#", "PHP", "C++", "C", "Shell", "Ruby",
+            "Go", "Kotlin", "Swift", "Objective-C", "Rust", "Scala", "Dart", "Lua", "Perl", "R",
+            "HTML", "CSS", "SCSS", "Vue", "Jupyter Notebook", "Makefile", "CMake", "Dockerfile", "Batchfile", "PowerShell",
+            "Groovy", "Haskell", "Elixir", "Erlang", "Clojure", "Objective-C++", "Assembly", "TeX", "Vim script", "Emacs Lisp"
+    };
+
     private static class InstanceHolder {
         public static final LanguagesTable sInstance = new LanguagesTable();
     }
@@ -40,6 +50,28 @@ public class LanguagesTable extends TableBasedProviderHandler {
         return arrayListToArrayOrNull(cmds);
     }
 
+    @Override
+    public String[] getSeedDataCommands(int oldVersion, int newVersion) {
+        if (oldVersion >= 6) {
+            return null;
+        }
+
+        //A compound select rather than multi row VALUES, which older SQLite versions do not support.
+        StringBuilder sb = new StringBuilder("INSERT OR IGNORE INTO ").append(mTableName).append(" (").append(LanguageColumns.LANGUAGE).append(") ");
+        for (int i = 0; i < SEED_LANGUAGES.length; ++i) {
+            if (i > 0) {
+                sb.append(" UNION ALL ");
+            }
+            sb.append("SELECT ");
+            DatabaseUtils.appendEscapedSQLString(sb, SEED_LANGUAGES[i]);
+        }
+        sb.append(';');
+
+        return new String[] {
+                sb.toString()
+        };
+    }
+
     @Override
     protected String[] getInsertOrUpdateKeyFields(ProviderContext providerContext) {
         return new String[] {
@@ -36,7 +36,12 @@ public class ReposTable extends TableBasedProviderHandler {
                 new TextField(RepoColumns.DESCRIPTION, 1),
                 new TextField(RepoColumns.LANGUAGES_URL, 1),
                 new IntegerField(RepoColumns.ON_SERVER, 1, 1L),
-                new IntegerField(RepoColumns.NEED_LANG_SYNC, 1, 1L)
+                new IntegerField(RepoColumns.NEED_LANG_SYNC, 1, 1L),
+                new TextField(RepoColumns.PAGE_URL, 2),
+                new TextField(RepoColumns.PUSHED_AT, 3),
+                new IntegerField(RepoColumns.SIZE, 3, 0L),
+                new IntegerField(RepoColumns.LANG_SYNCED_AT, 3, 0L),
+                new IntegerField(RepoColumns.CONTENT_HASH, 4, 0L)
         };
     }
 
@@ -68,6 +73,15 @@ public class ReposTable extends TableBasedProviderHandler {
             ));
         }
 
+        if (oldVersion < 3) {
+            //Languages only need to be fetched again when a push changed the repo.
+            cmds = createArrayListAndAdd(cmds, createUpdateTrigger(mTableName, new String[]{RepoColumns.PUSHED_AT, RepoColumns.SIZE}, "repos_pushed_trigger",
+                    "UPDATE " + mTableName + " SET " + RepoColumns.NEED_LANG_SYNC + " = 1 WHERE " + RepoColumns._ID + " = NEW." + RepoColumns._ID +
+                            " AND (OLD." + RepoColumns.PUSHED_AT + " IS NOT NEW." + RepoColumns.PUSHED_AT +
+                            " OR OLD." + RepoColumns.SIZE + " IS NOT NEW." + RepoColumns.SIZE + ");"
+            ));
+        }
+
         return arrayListToArrayOrNull(cmds);
     }
 }
@@ -0,0 +1,66 @@
+package net.gierach.githubsummary.provider.tables;
+
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.SyncCheckpointColumns;
+import net.gierach.githubsummary.provider.ReposContract.SyncCheckpoints;
+import net.gierach.structured_provider.ProviderContext;
+import net.gierach.structured_provider.TableBasedProviderHandler;
+
+import java.util.ArrayList;
+
+public class SyncCheckpointsTable extends TableBasedProviderHandler {
+
+    private static class InstanceHolder {
+        public static final SyncCheckpointsTable sInstance = new SyncCheckpointsTable();
+    }
+
+    public static SyncCheckpointsTable getInstance() {
+        return InstanceHolder.sInstance;
+    }
+
+    private SyncCheckpointsTable() {
+        super(SyncCheckpoints.TABLE_NAME, SyncCheckpoints.CONTENT_TYPE, SyncCheckpoints.ENTRY_CONTENT_TYPE, SyncCheckpoints.CONTENT_URI);
+    }
+
+    @Override
+    protected TableField[] getTableDefinition() {
+        return new TableField[] {
+                new AutonumberPrimaryKeyField(5),
+                new IntegerField(SyncCheckpointColumns.USER_ID, 5),
+                new IntegerField(SyncCheckpointColumns.BACKEND, 5),
+                new TextField(SyncCheckpointColumns.NEXT_PAGE, 5),
+                new IntegerField(SyncCheckpointColumns.UPDATED_AT, 5, 0L)
+        };
+    }
+
+    @Override
+    public String[] getUpgradeIndexCommands(int oldVersion, int newVersion) {
+        ArrayList<String> cmds = null;
+
+        if (oldVersion < 5) {
+            cmds = createArrayListAndAdd(cmds, createIndexCommand(mTableName, "sync_checkpoints_user_id_idx", true, SyncCheckpointColumns.USER_ID));
+        }
+
+        return arrayListToArrayOrNull(cmds);
+    }
+
+    @Override
+    protected String[] getInsertOrUpdateKeyFields(ProviderContext providerContext) {
+        return new String[] {
+                SyncCheckpointColumns.USER_ID
+        };
+    }
+
+    @Override
+    public String[] getUpgradeTriggerCommands(int oldVersion, int newVersion) {
+        ArrayList<String> cmds = null;
+
+        if (oldVersion < 5) {
+            cmds = createArrayListAndAdd(cmds, createDeleteTrigger(ReposContract.UserAccounts.TABLE_NAME, "users_delete_sync_checkpoints_trigger",
+                    "DELETE FROM " + mTableName + " WHERE " + SyncCheckpointColumns.USER_ID + " = OLD." + ReposContract.UserAccountColumns._ID + ';'
+            ));
+        }
+
+        return arrayListToArrayOrNull(cmds);
+    }
+}
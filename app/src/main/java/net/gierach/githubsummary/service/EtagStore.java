@@ -0,0 +1,109 @@
+package net.gierach.githubsummary.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import net.gierach.githubsummary.protocol.ConditionalRequest;
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.EtagColumns;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * ETag/Last-Modified validators of one account, loaded from the etags table once per sync. New validators are
+ * written with {@link #buildSaveOperation(ConditionalRequest)} in the same batch as the data they describe, so a
+ * stored etag always matches what is in the database.
+ */
+class EtagStore {
+
+    private static final String[] PROJECTION = new String[] {
+            EtagColumns.URL,
+            EtagColumns.ETAG,
+            EtagColumns.LAST_MODIFIED,
+            EtagColumns.LINK
+    };
+
+    private final ContentResolver mContentResolver;
+    private final long mUserId;
+    private HashMap<String, ConditionalRequest> mRequests;
+
+    EtagStore(ContentResolver contentResolver, long userId) {
+        this.mContentResolver = contentResolver;
+        this.mUserId = userId;
+    }
+
+    private void load() {
+        mRequests = new HashMap<>();
+
+        Cursor cursor = mContentResolver.query(ReposContract.Etags.CONTENT_URI, PROJECTION,
+                EtagColumns.USER_ID + "=?", new String[]{Long.toString(mUserId)}, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    ConditionalRequest request = new ConditionalRequest(cursor.getString(0), cursor.getString(1), cursor.getString(2), cursor.getString(3));
+                    mRequests.put(request.url, request);
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+        }
+    }
+
+    synchronized ConditionalRequest get(String url) {
+        if (mRequests == null) {
+            load();
+        }
+
+        ConditionalRequest stored = mRequests.get(url);
+        if (stored == null) {
+            return new ConditionalRequest(url);
+        }
+
+        return new ConditionalRequest(url, stored.etag, stored.lastModified, stored.link);
+    }
+
+    /**
+     * @return the delete of the validators of urls starting with urlPrefix, or null if there are none
+     */
+    synchronized ContentProviderOperation buildDeleteOperation(String urlPrefix) {
+        if (mRequests == null) {
+            load();
+        }
+
+        StringBuilder selection = new StringBuilder(EtagColumns.USER_ID).append("=? AND ").append(EtagColumns.URL).append(" IN (");
+        ArrayList<String> selectionArgs = new ArrayList<>();
+        selectionArgs.add(Long.toString(mUserId));
+        Iterator<String> urls = mRequests.keySet().iterator();
+        while (urls.hasNext()) {
+            String url = urls.next();
+            if (url.startsWith(urlPrefix)) {
+                selection.append(selectionArgs.size() > 1 ? ",?" : "?");
+                selectionArgs.add(url);
+                urls.remove();
+            }
+        }
+        if (selectionArgs.size() == 1) {
+            return null;
+        }
+        selection.append(')');
+
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newDelete(ReposContract.Etags.CONTENT_URI);
+        builder.withSelection(selection.toString(), selectionArgs.toArray(new String[selectionArgs.size()]));
+
+        return builder.build();
+    }
+
+    ContentProviderOperation buildSaveOperation(ConditionalRequest request) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(ReposContract.makeInsertOrUpdateUri(ReposContract.Etags.CONTENT_URI));
+        builder.withValue(EtagColumns.USER_ID, mUserId);
+        builder.withValue(EtagColumns.URL, request.url);
+        builder.withValue(EtagColumns.ETAG, request.etag);
+        builder.withValue(EtagColumns.LAST_MODIFIED, request.lastModified);
+        builder.withValue(EtagColumns.LINK, request.link);
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,98 @@
+package net.gierach.githubsummary.service;
+
+import net.gierach.githubsummary.protocol.GitHubProtocolException;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Joins fetch stages running on an executor to a single persisting thread through a bounded queue. Producers
+ * fetch and parse items off the network and block in {@link #put(Object)} once capacity items are waiting, so
+ * network and database I/O overlap while memory stays bounded. Only the consuming thread may call
+ * {@link #submit(Producer)} and {@link #take()}. The owner shuts the executor down when done, which also
+ * unblocks producers if the consumer gave up early.
+ */
+class FetchPipeline<T> {
+
+    interface Producer<T> {
+        void produce(FetchPipeline<T> pipeline) throws IOException, GitHubProtocolException, InterruptedException;
+    }
+
+    private static final Object END = new Object();
+
+    private static class Failure {
+        final Throwable exception;
+
+        Failure(Throwable exception) {
+            this.exception = exception;
+        }
+    }
+
+    private final ExecutorService mExecutor;
+    private final BlockingQueue<Object> mQueue;
+    private int mActiveProducers = 0;
+
+    FetchPipeline(ExecutorService executor, int capacity) {
+        mExecutor = executor;
+        mQueue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    void submit(final Producer<T> producer) {
+        ++mActiveProducers;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object end = END;
+                try {
+                    producer.produce(FetchPipeline.this);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | GitHubProtocolException | RuntimeException | Error e) {
+                    //Errors are handed over too, a consumer waiting for this producer would otherwise never return.
+                    end = new Failure(e);
+                }
+
+                try {
+                    mQueue.put(end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    void put(T item) throws InterruptedException {
+        mQueue.put(item);
+    }
+
+    /**
+     * @return the next fetched item, or null once every producer has finished
+     * @throws IOException the first failure of a producer, after which the pipeline must be abandoned
+     */
+    @SuppressWarnings("unchecked")
+    T take() throws IOException, GitHubProtocolException, InterruptedException {
+        while (mActiveProducers > 0) {
+            Object item = mQueue.take();
+            if (item == END) {
+                --mActiveProducers;
+            } else if (item instanceof Failure) {
+                --mActiveProducers;
+                Throwable exception = ((Failure) item).exception;
+                if (exception instanceof IOException) {
+                    throw (IOException) exception;
+                } else if (exception instanceof GitHubProtocolException) {
+                    throw (GitHubProtocolException) exception;
+                } else if (exception instanceof Error) {
+                    throw (Error) exception;
+                }
+                throw (RuntimeException) exception;
+            } else {
+                return (T) item;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,125 @@
+package net.gierach.githubsummary.service;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.LanguageColumns;
+
+/**
+ * Process wide map of language name to row id, so syncs resolve languages in memory instead of scanning the
+ * languages table each time. Language rows are only ever added, so a change notification only means rows past the
+ * highest known id have to be read. Names are interned, they repeat across every repo of every account.
+ */
+class LanguageDictionary {
+
+    private static final String[] PROJECTION = new String[] {
+            LanguageColumns._ID,
+            LanguageColumns.LANGUAGE
+    };
+
+    private static final int INITIAL_CAPACITY = 128;
+
+    private static LanguageDictionary sInstance;
+
+    static synchronized LanguageDictionary getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LanguageDictionary(context);
+        }
+
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private volatile boolean mStale = true;
+
+    //Open addressing with linear probing; names and ids in parallel arrays so ids stay unboxed.
+    private String[] mNames = new String[INITIAL_CAPACITY];
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int mSize;
+    private long mMaxId;
+
+    private LanguageDictionary(Context context) {
+        mContext = context.getApplicationContext();
+
+        mContext.getContentResolver().registerContentObserver(ReposContract.Languages.CONTENT_URI, true, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mStale = true;
+            }
+        });
+    }
+
+    /**
+     * @return the row id of the language, or -1 if it is not stored
+     */
+    synchronized long get(String language) {
+        if (mStale) {
+            readNewRows();
+        }
+
+        int index = indexOf(language);
+
+        return mNames[index] != null ? mIds[index] : -1;
+    }
+
+    /**
+     * Records a language inserted by the caller, so it resolves before the change notification arrives.
+     */
+    synchronized void put(String language, long id) {
+        int index = indexOf(language);
+        if (mNames[index] == null) {
+            mNames[index] = language.intern();
+            ++mSize;
+            if (mSize * 4 > mNames.length * 3) {
+                grow();
+            }
+        }
+        mIds[index] = id;
+        mMaxId = Math.max(mMaxId, id);
+    }
+
+    private void readNewRows() {
+        //Cleared first, so a change during the query is read next time.
+        mStale = false;
+
+        Cursor cursor = mContext.getContentResolver().query(ReposContract.Languages.CONTENT_URI, PROJECTION,
+                LanguageColumns._ID + ">?", new String[]{Long.toString(mMaxId)}, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    put(cursor.getString(1), cursor.getLong(0));
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+        }
+    }
+
+    private int indexOf(String language) {
+        int mask = mNames.length - 1;
+        int hash = language.hashCode();
+        int index = (hash ^ (hash >>> 16)) & mask;
+        while (mNames[index] != null && !mNames[index].equals(language)) {
+            index = (index + 1) & mask;
+        }
+
+        return index;
+    }
+
+    private void grow() {
+        String[] names = mNames;
+        long[] ids = mIds;
+        mNames = new String[names.length * 2];
+        mIds = new long[names.length * 2];
+
+        for (int i = 0; i < names.length; ++i) {
+            if (names[i] != null) {
+                int index = indexOf(names[i]);
+                mNames[index] = names[i];
+                mIds[index] = ids[i];
+            }
+        }
+    }
+}
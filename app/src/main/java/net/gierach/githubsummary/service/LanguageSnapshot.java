@@ -0,0 +1,58 @@
+package net.gierach.githubsummary.service;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.LanguageRepoMapColumns;
+import net.gierach.githubsummary.provider.ReposContract.RepoColumns;
+
+import java.util.HashMap;
+
+/**
+ * The stored language maps of the repos of one account, repo id to language id to byte count, so a language sync
+ * only writes the entries that changed.
+ */
+class LanguageSnapshot {
+
+    private static final String[] PROJECTION = new String[] {
+            LanguageRepoMapColumns.REPO_ID,
+            LanguageRepoMapColumns.LANGUAGE_ID,
+            LanguageRepoMapColumns.LANG_BYTES
+    };
+
+    private final HashMap<Long, HashMap<Long, Long>> mRepoLanguages = new HashMap<>();
+
+    static LanguageSnapshot load(ContentResolver contentResolver, long userId) {
+        LanguageSnapshot snapshot = new LanguageSnapshot();
+
+        Cursor cursor = contentResolver.query(ReposContract.LanguageRepoMap.CONTENT_URI, PROJECTION,
+                LanguageRepoMapColumns.REPO_ID + " IN (SELECT " + RepoColumns._ID + " FROM " + ReposContract.Repos.TABLE_NAME +
+                        " WHERE " + RepoColumns.USER_ID + "=?)",
+                new String[]{Long.toString(userId)}, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    long repoId = cursor.getLong(0);
+                    HashMap<Long, Long> languages = snapshot.mRepoLanguages.get(repoId);
+                    if (languages == null) {
+                        languages = new HashMap<>();
+                        snapshot.mRepoLanguages.put(repoId, languages);
+                    }
+                    languages.put(cursor.getLong(1), cursor.getLong(2));
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * @return language id to byte count of the repo, or null if it has no stored languages
+     */
+    HashMap<Long, Long> get(long repoId) {
+        return mRepoLanguages.get(repoId);
+    }
+}
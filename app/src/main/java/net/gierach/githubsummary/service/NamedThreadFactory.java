@@ -0,0 +1,21 @@
+package net.gierach.githubsummary.service;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names pool threads "name #n" so sync work is recognizable in traces.
+ */
+class NamedThreadFactory implements ThreadFactory {
+    private final String mName;
+    private final AtomicInteger mCount = new AtomicInteger(1);
+
+    NamedThreadFactory(String name) {
+        mName = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return new Thread(r, mName + " #" + mCount.getAndIncrement());
+    }
+}
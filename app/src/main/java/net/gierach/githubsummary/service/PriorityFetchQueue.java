@@ -0,0 +1,50 @@
+package net.gierach.githubsummary.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Pending fetches keyed by row id, handed out in insertion order except that fetches whose key is in the priority
+ * list passed to {@link #poll(long[])} go first. The priority list is passed on every poll, so it can change while
+ * the fetches run. Safe to poll from several fetch threads.
+ */
+class PriorityFetchQueue<T> {
+
+    private final LinkedHashMap<Long, T> mPending = new LinkedHashMap<>();
+
+    synchronized void add(long key, T item) {
+        mPending.put(key, item);
+    }
+
+    /**
+     * @param priorityKeys keys to hand out first, in order
+     * @return the next fetch, or null once the queue is empty
+     */
+    synchronized T poll(long[] priorityKeys) {
+        for (long key : priorityKeys) {
+            T item = mPending.remove(key);
+            if (item != null) {
+                return item;
+            }
+        }
+
+        Iterator<T> iterator = mPending.values().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        T item = iterator.next();
+        iterator.remove();
+
+        return item;
+    }
+
+    synchronized boolean containsAny(long[] keys) {
+        for (long key : keys) {
+            if (mPending.containsKey(key)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
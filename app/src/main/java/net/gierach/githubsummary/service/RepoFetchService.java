@@ -1,42 +1,66 @@
 package net.gierach.githubsummary.service;
 
-import android.app.IntentService;
-import android.content.ContentProviderOperation;
-import android.content.ContentProviderResult;
-import android.content.ContentUris;
-import android.content.ContentValues;
+import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.OperationApplicationException;
-import android.database.Cursor;
-import android.net.Uri;
-import android.os.RemoteException;
-import android.support.annotation.Nullable;
-import android.util.Log;
-
-import net.gierach.githubsummary.model.LanguageData;
-import net.gierach.githubsummary.model.RepoData;
-import net.gierach.githubsummary.model.SyncingStateManager;
+import android.os.Build;
+import android.os.IBinder;
+
 import net.gierach.githubsummary.model.UserAccount;
-import net.gierach.githubsummary.model.UserAccountDao;
-import net.gierach.githubsummary.protocol.GitHubProtocol;
-import net.gierach.githubsummary.protocol.GitHubProtocolException;
-import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.protocol.GitHubSession;
 
-import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-public class RepoFetchService extends IntentService {
+public class RepoFetchService extends Service {
 
     private static final String TAG = "RepoFetchService";
 
     private static final String ACTION_SYNC_USER_REPOS = "net.gierach.githubsummary.service.SYNC_USER_REPOS";
     private static final String ACTION_VALIDATE_USER_CREDENTIALS = "net.gierach.githubsummary.service.VALIDATE_USER_ACCOUNT";
+    private static final String ACTION_SCHEDULED_SYNC = "net.gierach.githubsummary.service.SCHEDULED_SYNC";
     private static final String EXTRA_USERNAME = "username";
+    private static final String EXTRA_PRIORITY = "priority";
+
+    /**
+     * Sync priorities, from scheduled background work up to an explicit refresh by the user.
+     */
+    public static final int SYNC_PRIORITY_BACKGROUND = 0;
+    public static final int SYNC_PRIORITY_AUTO = 1;
+    public static final int SYNC_PRIORITY_USER = 2;
+
+    public static final int SYNC_BACKEND_REST = 0;
+    public static final int SYNC_BACKEND_GRAPHQL = 1;
+
+    /**
+     * Selects whether syncs use the REST v3 api (one request per page plus one per repo for languages) or the
+     * GraphQL v4 api (one request per page including languages).
+     */
+    public static void setSyncBackend(int syncBackend) {
+        RepoSyncer.sSyncBackend = syncBackend;
+    }
+
+    /**
+     * Sets how many languages_url requests may be in flight at once during a language sync.
+     */
+    public static void setLanguageFetchConcurrency(int concurrency) {
+        RepoSyncer.sLanguageFetchConcurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Sets how long the languages of an unchanged repo are trusted before they are fetched again. Repos whose
+     * pushed_at or size changed are always fetched.
+     */
+    public static void setLanguageStalenessTtl(long ttl, TimeUnit unit) {
+        RepoSyncer.sLanguageStalenessTtlMs = unit.toMillis(ttl);
+    }
+
+    /**
+     * Moves the languages of the repos on screen to the front of the language fetch queue; the rest still follow
+     * in the background. Replaces the repos passed before, pass none once no repo is shown. Does not start a sync.
+     */
+    public static void prioritizeRepoLanguages(Context context, long... repoIds) {
+        SyncEngine.getInstance(context).setPriorityRepos(repoIds);
+    }
 
     public static void validateUserCredentials(Context context, String username) {
         Intent intent = new Intent(context, RepoFetchService.class);
@@ -47,205 +71,103 @@ public class RepoFetchService extends IntentService {
     }
 
     public static void syncUserRepos(Context context, UserAccount userAccount) {
-        Intent intent = new Intent(context, RepoFetchService.class);
-        intent.setAction(ACTION_SYNC_USER_REPOS);
-        intent.putExtra(EXTRA_USERNAME, userAccount.getUsername());
-
-        context.startService(intent);
+        syncUserRepos(context, userAccount, SYNC_PRIORITY_AUTO);
     }
 
-    public RepoFetchService() {
-        super("RepoFetchService");
+    /**
+     * Requests a sync of the account. Requests made while a sync of the account is queued or running are merged,
+     * so bursts of requests cost at most one extra sync.
+     *
+     * @param priority one of the SYNC_PRIORITY constants
+     */
+    public static void syncUserRepos(Context context, UserAccount userAccount, int priority) {
+        context.startService(buildSyncIntent(context, userAccount, priority));
     }
 
-    @Override
-    protected void onHandleIntent(@Nullable Intent intent) {
-        if (intent != null) {
-            if (ACTION_SYNC_USER_REPOS.equals(intent.getAction())) {
-                String username = intent.getStringExtra(EXTRA_USERNAME);
-                UserAccount userAccount = UserAccountDao.getInstance(this).getAccountByUsername(username);
-                if (userAccount != null && userAccount.isValidated() && userAccount.getRecordId() != null) {
-                    performSyncUserRepos(userAccount);
-                }
-            } else if (ACTION_VALIDATE_USER_CREDENTIALS.equals(intent.getAction())) {
-                performValidateUserCredentials(intent.getStringExtra(EXTRA_USERNAME));
-            }
-        }
+    static Intent buildSyncIntent(Context context, UserAccount userAccount, int priority) {
+        Intent intent = new Intent(context, RepoFetchService.class);
+        intent.setAction(ACTION_SYNC_USER_REPOS);
+        intent.putExtra(EXTRA_USERNAME, userAccount.getUsername());
+        intent.putExtra(EXTRA_PRIORITY, priority);
+
+        return intent;
     }
 
-    private void performSyncUserRepos(UserAccount userAccount) {
-        SyncingStateManager.getInstance().syncingStartedForUserAccount(userAccount);
-
-        try {
-            List<RepoData> repoDataList = new ArrayList<>();
-            GitHubProtocol.getUserRepos(repoDataList, userAccount.getUsername(), userAccount.getPassword());
-
-            saveRepoDataList(userAccount, repoDataList);
-
-            performSyncRepoLanguages(userAccount);
-        } catch (IOException e) {
-            Log.e(TAG, "::performSyncUserRepos IOException", e);
-        } catch (GitHubProtocolException e) {
-            Log.e(TAG, "::performSyncUserRepos GitHubProtocolException", e);
-            if (e.httpStatusCode == HttpURLConnection.HTTP_FORBIDDEN ||
-                    e.httpStatusCode == HttpURLConnection.HTTP_UNAUTHORIZED ||
-                    e.httpStatusCode == HttpURLConnection.HTTP_NOT_FOUND) {
-                UserAccountDao.getInstance(this).invalidateUserAccount(userAccount);
-            }
+    /**
+     * Intent fired by the {@link SyncScheduler} alarms on devices without JobScheduler. Later versions use
+     * {@link SyncJobService}, starting this service from the background is not allowed there.
+     */
+    static Intent buildScheduledSyncIntent(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            throw new IllegalStateException("Scheduled syncs run as jobs on API " + Build.VERSION.SDK_INT);
         }
 
-        SyncingStateManager.getInstance().syncingFinishedForUserAccount(userAccount);
-    }
+        Intent intent = new Intent(context, RepoFetchService.class);
+        intent.setAction(ACTION_SCHEDULED_SYNC);
 
-    private void performValidateUserCredentials(String username) {
-        UserAccount userAccount = UserAccountDao.getInstance(this).getAccountByUsername(username);
-        if (userAccount != null) {
-            boolean validated = false;
-
-            try {
-                String displayName = GitHubProtocol.getUserDisplayNameBasicAuthentication(userAccount.getUsername(), userAccount.getPassword());
-                userAccount.setDisplayName(displayName);
-                validated = true;
-            } catch (IOException e) {
-                Log.e(TAG, "::performValidateUserCredentials IOException", e);
-            } catch (GitHubProtocolException e) {
-                Log.e(TAG, "::performValidateUserCredentials GitHubProtocolException", e);
-            }
-
-            if (validated) {
-                UserAccountDao.getInstance(this).validateUserAccount(userAccount);
-            } else {
-                UserAccountDao.getInstance(this).invalidateUserAccount(userAccount);
-            }
-        }
+        return intent;
     }
 
-    private void saveRepoDataList(UserAccount userAccount, List<RepoData> repoDataList) {
-        if (userAccount.getRecordId() == null) {
-            return;
+    private final SyncEngine.IdleListener mIdleListener = new SyncEngine.IdleListener() {
+        @Override
+        public void onIdle() {
+            //Ignored by the framework if a newer start request arrived in the meantime.
+            stopSelf(mLastStartId);
         }
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
-        long userId = userAccount.getRecordId();
+    };
 
-        Uri insertUri = ReposContract.makeInsertOrUpdateUri(ReposContract.Repos.CONTENT_URI);
+    private SyncEngine mSyncEngine;
+    private volatile int mLastStartId;
 
-        final String[] userIdSelection = new String[]{userAccount.getRecordId().toString()};
+    @Override
+    public void onCreate() {
+        super.onCreate();
 
-        ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(ReposContract.Repos.CONTENT_URI);
-        builder.withValue(ReposContract.RepoColumns.ON_SERVER, 0);
-        builder.withSelection(ReposContract.RepoColumns.USER_ID + "=?", userIdSelection);
-        operationList.add(builder.build());
+        mSyncEngine = SyncEngine.getInstance(this);
+        mSyncEngine.addIdleListener(mIdleListener);
+    }
 
-        for (int i = 0; i < repoDataList.size(); ++i) {
-            RepoData repoData = repoDataList.get(i);
+    @Override
+    public void onDestroy() {
+        mSyncEngine.removeIdleListener(mIdleListener);
 
-            builder = ContentProviderOperation.newInsert(insertUri);
-            builder.withValues(repoData.getContentValues(userId));
-            operationList.add(builder.build());
-        }
+        super.onDestroy();
+    }
 
-        builder = ContentProviderOperation.newDelete(ReposContract.Repos.CONTENT_URI);
-        builder.withSelection(ReposContract.RepoColumns.USER_ID + "=? AND " + ReposContract.RepoColumns.ON_SERVER + "=0", userIdSelection);
-        operationList.add(builder.build());
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
 
-        try {
-            getContentResolver().applyBatch(ReposContract.AUTHORITY, operationList);
-        } catch (OperationApplicationException | RemoteException e) {
-            Log.e(TAG, "::saveRepoDataList Error writing to DB.", e);
-        }
+    SyncEngine getSyncEngine() {
+        return mSyncEngine;
     }
 
-    private void performSyncRepoLanguages(UserAccount userAccount) {
-        HashMap<String, Long> languageIdMap = new HashMap<>();
-        Cursor langCursor = getContentResolver().query(ReposContract.Languages.CONTENT_URI, new String[]{ReposContract.LanguageColumns._ID, ReposContract.LanguageColumns.LANGUAGE}, null, null, null);
-        if (langCursor != null) {
-            if (langCursor.moveToFirst()) {
-                do {
-                    languageIdMap.put(langCursor.getString(1), langCursor.getLong(0));
-                } while (langCursor.moveToNext());
-            }
-
-            langCursor.close();
-        }
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
 
-        Cursor cursor = getContentResolver().query(ReposContract.Repos.CONTENT_URI,
-                new String[]{ReposContract.RepoColumns._ID, ReposContract.RepoColumns.LANGUAGES_URL},
-                ReposContract.RepoColumns.USER_ID + "=? AND " + ReposContract.RepoColumns.NEED_LANG_SYNC + "=1",
-                new String[]{userAccount.getRecordId().toString()}, null);
-
-        if (cursor != null) {
-            try {
-                if (cursor.moveToFirst()) {
-                    do {
-                        String languagesUrl = cursor.getString(1);
-                        long repoId = cursor.getLong(0);
-
-                        List<LanguageData> languageDataList = GitHubProtocol.getRepoLanguages(languagesUrl, userAccount.getUsername(), userAccount.getPassword());
-                        saveRepoLanguageData(languageDataList, userAccount, repoId, languageIdMap);
-                    } while (cursor.moveToNext());
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "::performSyncRepoLanguages IOException", e);
-            } catch (GitHubProtocolException e) {
-                Log.e(TAG, "::performSyncRepoLanguages GitHubProtocolException", e);
-            }
-
-            cursor.close();
-        }
+        GitHubSession.getInstance().evictIdleConnections();
     }
 
-    private void saveRepoLanguageData(List<LanguageData> languageDataList, UserAccount userAccount, long repoId, HashMap<String, Long> languageIdMap) {
-        HashMap<String, Integer> insertedLanguageMap = new HashMap<>();
-
-        String[] repoIdParams = new String[]{Long.toString(repoId)};
-        Uri languageInsertUri = ReposContract.makeInsertOrUpdateUri(ReposContract.Languages.CONTENT_URI);
-        Uri insertUri = ReposContract.makeInsertOrUpdateUri(ReposContract.LanguageRepoMap.CONTENT_URI);
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
-
-        ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(ReposContract.LanguageRepoMap.CONTENT_URI);
-        builder.withValue(ReposContract.LanguageRepoMapColumns.ON_SERVER, 0);
-        builder.withSelection(ReposContract.LanguageRepoMapColumns.REPO_ID + "=?", repoIdParams);
-        operationList.add(builder.build());
-
-        for (int i = 0; i < languageDataList.size(); ++i) {
-            LanguageData languageData = languageDataList.get(i);
-
-            builder = ContentProviderOperation.newInsert(insertUri);
-            ContentValues values = new ContentValues();
-            values.put(ReposContract.LanguageRepoMapColumns.ON_SERVER, true);
-            values.put(ReposContract.LanguageRepoMapColumns.LANG_BYTES, languageData.byteCount);
-            values.put(ReposContract.LanguageRepoMapColumns.REPO_ID, repoId);
-
-            Long languageId = languageIdMap.get(languageData.language);
-            if (languageId == null) {
-                Integer index = insertedLanguageMap.get(languageData.language);
-                if (index == null) {
-                    index = operationList.size();
-                    insertedLanguageMap.put(languageData.language, index);
-                    ContentProviderOperation.Builder langBuilder = ContentProviderOperation.newInsert(languageInsertUri);
-                    langBuilder.withValues(languageData.getContentValues());
-                    operationList.add(langBuilder.build());
-                }
-                builder.withValueBackReference(ReposContract.LanguageRepoMapColumns.LANGUAGE_ID, index);
-            } else {
-                values.put(ReposContract.LanguageRepoMapColumns.LANGUAGE_ID, languageId);
-            }
-            builder.withValues(values);
-            operationList.add(builder.build());
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+
+        String username = intent != null ? intent.getStringExtra(EXTRA_USERNAME) : null;
+        if (username != null && ACTION_SYNC_USER_REPOS.equals(intent.getAction())) {
+            mSyncEngine.requestSync(username, intent.getIntExtra(EXTRA_PRIORITY, SYNC_PRIORITY_AUTO), true);
+        } else if (username != null && ACTION_VALIDATE_USER_CREDENTIALS.equals(intent.getAction())) {
+            mSyncEngine.requestValidation(username);
+        } else if (intent != null && ACTION_SCHEDULED_SYNC.equals(intent.getAction()) &&
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mSyncEngine.requestSyncOfValidatedAccounts(SYNC_PRIORITY_BACKGROUND, SyncScheduler.isLanguageSyncWindow(this));
         }
 
-        builder = ContentProviderOperation.newDelete(ReposContract.LanguageRepoMap.CONTENT_URI);
-        builder.withSelection(ReposContract.LanguageRepoMapColumns.REPO_ID + "=? AND " + ReposContract.LanguageRepoMapColumns.ON_SERVER + "=0", repoIdParams);
-        operationList.add(builder.build());
-
-        try {
-            ContentProviderResult[] results = getContentResolver().applyBatch(ReposContract.AUTHORITY, operationList);
-
-            for (Map.Entry<String, Integer> entry : insertedLanguageMap.entrySet()) {
-                languageIdMap.put(entry.getKey(), ContentUris.parseId(results[entry.getValue()].uri));
-            }
-        } catch (OperationApplicationException | RemoteException e) {
-
+        if (mSyncEngine.isIdle()) {
+            stopSelf(startId);
         }
+
+        return START_NOT_STICKY;
     }
 }
@@ -0,0 +1,85 @@
+package net.gierach.githubsummary.service;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.RepoColumns;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compact copy of the stored repos of one account, keyed by server id, that a sync diffs the fetched repos against
+ * so only new and changed rows are written. Entries are taken out as fetched repos are matched; the ones left over
+ * are the repos that are gone from the server.
+ */
+class RepoSnapshot {
+
+    private static final String[] PROJECTION = new String[] {
+            RepoColumns._ID,
+            RepoColumns.SERVER_ID,
+            RepoColumns.PAGE_URL,
+            RepoColumns.CONTENT_HASH,
+            RepoColumns.NEED_LANG_SYNC
+    };
+
+    static class Entry {
+        final long id;
+        final String pageUrl;
+        final long contentHash;
+        final boolean needLangSync;
+
+        Entry(long id, String pageUrl, long contentHash, boolean needLangSync) {
+            this.id = id;
+            this.pageUrl = pageUrl;
+            this.contentHash = contentHash;
+            this.needLangSync = needLangSync;
+        }
+    }
+
+    private final HashMap<String, Entry> mEntries = new HashMap<>();
+
+    static RepoSnapshot load(ContentResolver contentResolver, long userId) {
+        RepoSnapshot snapshot = new RepoSnapshot();
+
+        Cursor cursor = contentResolver.query(ReposContract.Repos.CONTENT_URI, PROJECTION,
+                RepoColumns.USER_ID + "=?", new String[]{Long.toString(userId)}, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    snapshot.mEntries.put(cursor.getString(1),
+                            new Entry(cursor.getLong(0), cursor.getString(2), cursor.getLong(3), cursor.getInt(4) != 0));
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Removes and returns the stored entry of a fetched repo, or null if the repo is new.
+     */
+    Entry take(String serverId) {
+        return mEntries.remove(serverId);
+    }
+
+    /**
+     * @param unchangedPageUrls pages answered with 304, whose repos were not fetched and therefore not taken
+     * @return the row ids of the repos that were neither fetched nor on an unchanged page
+     */
+    List<Long> getRemovedIds(Set<String> unchangedPageUrls) {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.pageUrl == null || !unchangedPageUrls.contains(entry.pageUrl)) {
+                ids.add(entry.id);
+            }
+        }
+
+        return ids;
+    }
+}
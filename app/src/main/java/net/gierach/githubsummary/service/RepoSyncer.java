@@ -0,0 +1,738 @@
+package net.gierach.githubsummary.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import net.gierach.githubsummary.model.LanguageData;
+import net.gierach.githubsummary.model.RepoData;
+import net.gierach.githubsummary.model.UserAccount;
+import net.gierach.githubsummary.model.UserAccountDao;
+import net.gierach.githubsummary.protocol.CancellationToken;
+import net.gierach.githubsummary.protocol.ConditionalRequest;
+import net.gierach.githubsummary.protocol.GitHubProtocol;
+import net.gierach.githubsummary.protocol.GitHubProtocolException;
+import net.gierach.githubsummary.protocol.GitHubRateLimitException;
+import net.gierach.githubsummary.provider.ReposContract;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Syncs the repos and languages of an account and validates credentials. Holds no per sync state, so one instance
+ * serves every thread of {@link SyncEngine}.
+ */
+class RepoSyncer {
+
+    private static final String TAG = "RepoSyncer";
+
+    private static final int DEFAULT_LANGUAGE_FETCH_CONCURRENCY = 6;
+    private static final long DEFAULT_LANGUAGE_STALENESS_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    static final long RATE_LIMIT_RESUME_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    static volatile int sSyncBackend = RepoFetchService.SYNC_BACKEND_REST;
+    static volatile long sLanguageStalenessTtlMs = DEFAULT_LANGUAGE_STALENESS_TTL_MS;
+    static volatile int sLanguageFetchConcurrency = DEFAULT_LANGUAGE_FETCH_CONCURRENCY;
+
+    //Fetched pages waiting to be written; a page holds up to 100 repos.
+    private static final int PAGE_QUEUE_CAPACITY = 2;
+
+    //Language results are committed in chunks of about this many operations, or once the oldest buffered result
+    //waited for the time budget so the list still fills in progressively.
+    private static final int LANGUAGE_CHUNK_MAX_OPERATIONS = 500;
+    private static final long LANGUAGE_CHUNK_TIME_BUDGET_MS = TimeUnit.SECONDS.toMillis(1);
+
+    //Stays below the 999 host parameter limit of SQLite.
+    private static final int MAX_SELECTION_ARGS = 500;
+
+    private static final ThreadFactory PAGE_FETCH_THREAD_FACTORY = new NamedThreadFactory("RepoPageFetch");
+    private static final ThreadFactory LANGUAGE_FETCH_THREAD_FACTORY = new NamedThreadFactory("LanguageFetch");
+
+    private static class RepoPage {
+        final ConditionalRequest page;
+        final List<RepoData> repoDataList;
+        //Url or cursor of the following page, null on the last page.
+        final String next;
+
+        RepoPage(ConditionalRequest page, List<RepoData> repoDataList, String next) {
+            this.page = page;
+            this.repoDataList = repoDataList;
+            this.next = next;
+        }
+    }
+
+    private static class LanguageFetch {
+        final long repoId;
+        final ConditionalRequest languages;
+        List<LanguageData> languageDataList;
+        boolean failed;
+
+        LanguageFetch(long repoId, ConditionalRequest languages) {
+            this.repoId = repoId;
+            this.languages = languages;
+        }
+    }
+
+    /**
+     * Fetches languages until the queue runs dry, taking the repos on screen first.
+     */
+    private class LanguageFetchWorker implements FetchPipeline.Producer<LanguageFetch> {
+        final PriorityFetchQueue<LanguageFetch> queue;
+        final UserAccount userAccount;
+        final CancellationToken cancellationToken;
+
+        LanguageFetchWorker(PriorityFetchQueue<LanguageFetch> queue, UserAccount userAccount, CancellationToken cancellationToken) {
+            this.queue = queue;
+            this.userAccount = userAccount;
+            this.cancellationToken = cancellationToken;
+        }
+
+        @Override
+        public void produce(FetchPipeline<LanguageFetch> pipeline) throws IOException, GitHubProtocolException, InterruptedException {
+            LanguageFetch fetch;
+            while ((fetch = queue.poll(mPriorityRepoIds)) != null) {
+                try {
+                    fetch.languageDataList = GitHubProtocol.getRepoLanguages(fetch.languages, userAccount.getUsername(), userAccount.getPassword(), cancellationToken);
+                } catch (GitHubRateLimitException e) {
+                    throw e;
+                } catch (GitHubProtocolException e) {
+                    //Rejected credentials fail every repo alike; anything else, such as a disabled repo, is particular to this one.
+                    if (e.httpStatusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                        throw e;
+                    }
+                    Log.w(TAG, "::produce languages of repo " + fetch.repoId + " failed", e);
+                    fetch.failed = true;
+                }
+                pipeline.put(fetch);
+            }
+        }
+    }
+
+
+    /**
+     * Language results of several repos written as one batch, so a chunk costs one transaction and one round of
+     * change notifications instead of one per repo. Languages inserted by a chunk are referenced by back reference
+     * until the chunk is committed and their ids are known.
+     */
+    private class LanguageChunk {
+        final LanguageSnapshot languageSnapshot;
+        final CancellationToken cancellationToken;
+        final ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
+        final HashMap<String, Integer> insertedLanguageMap = new HashMap<>();
+        long firstResultNanos;
+
+        LanguageChunk(LanguageSnapshot languageSnapshot, CancellationToken cancellationToken) {
+            this.languageSnapshot = languageSnapshot;
+            this.cancellationToken = cancellationToken;
+        }
+
+        void addLanguages(long repoId, List<LanguageData> languageDataList, ContentProviderOperation etagOperation) {
+            onAdd();
+            addRepoLanguageOperations(operationList, languageDataList, repoId, -1, languageSnapshot.get(repoId), mLanguageDictionary, insertedLanguageMap);
+            addLanguagesSyncedOperation(operationList, repoId, -1);
+            operationList.add(etagOperation);
+        }
+
+        void addNotModified(long repoId) {
+            onAdd();
+            addLanguagesSyncedOperation(operationList, repoId, -1);
+        }
+
+        private void onAdd() {
+            if (operationList.isEmpty()) {
+                firstResultNanos = System.nanoTime();
+            }
+        }
+
+        boolean isFull() {
+            return operationList.size() >= LANGUAGE_CHUNK_MAX_OPERATIONS ||
+                    (!operationList.isEmpty() && System.nanoTime() - firstResultNanos >= TimeUnit.MILLISECONDS.toNanos(LANGUAGE_CHUNK_TIME_BUDGET_MS));
+        }
+
+        /**
+         * Commits the buffered results. A failed or cancelled chunk is dropped as a whole; its repos keep
+         * need_lang_sync and are fetched again by the next sync.
+         */
+        void flush() {
+            if (operationList.isEmpty()) {
+                return;
+            }
+
+            ContentProviderResult[] results = applyBatch(operationList, "::flush", cancellationToken);
+            if (results != null) {
+                putInsertedLanguageIds(results, mLanguageDictionary, insertedLanguageMap);
+            }
+
+            operationList.clear();
+            insertedLanguageMap.clear();
+        }
+    }
+
+    private final Context mContext;
+    private final LanguageDictionary mLanguageDictionary;
+    private volatile long[] mPriorityRepoIds = new long[0];
+
+    RepoSyncer(Context context) {
+        mContext = context.getApplicationContext();
+        mLanguageDictionary = LanguageDictionary.getInstance(mContext);
+    }
+
+    /**
+     * Moves the languages of these repos to the front of running and later language syncs, replacing the ids set
+     * before. Pass an empty array once the repos are no longer shown.
+     */
+    void setPriorityRepoIds(long[] repoIds) {
+        mPriorityRepoIds = repoIds;
+    }
+
+    /**
+     * @param syncLanguages     false to only refresh the repo list and leave changed repos flagged for a later
+     *                          language sync; the GraphQL backend always gets languages with the repos, this
+     *                          only skips the separate fetch for repos with more languages than fit its query
+     * @param cancellationToken stops the sync before its next request or write once cancelled; what was written
+     *                          so far stays, a later sync resumes from the checkpoint
+     */
+    void syncUserRepos(UserAccount userAccount, boolean syncLanguages, CancellationToken cancellationToken) {
+        try {
+            if (sSyncBackend == RepoFetchService.SYNC_BACKEND_GRAPHQL) {
+                performSyncUserReposGraphQL(userAccount, syncLanguages, cancellationToken);
+            } else {
+                performSyncUserReposRest(userAccount, syncLanguages, cancellationToken);
+            }
+        } catch (IOException e) {
+            if (cancellationToken.isCancelled()) {
+                Log.d(TAG, "::syncUserRepos sync of " + userAccount.getUsername() + " cancelled");
+            } else {
+                Log.e(TAG, "::syncUserRepos IOException", e);
+            }
+        } catch (GitHubRateLimitException e) {
+            Log.w(TAG, "::syncUserRepos rate limited", e);
+            scheduleSyncAfterRateLimitReset(userAccount, e.resetTimeMillis);
+        } catch (GitHubProtocolException e) {
+            Log.e(TAG, "::syncUserRepos GitHubProtocolException", e);
+            //Rate limited 403s arrive as GitHubRateLimitException, the rest mean the credentials were rejected.
+            if (e.httpStatusCode == HttpURLConnection.HTTP_FORBIDDEN ||
+                    e.httpStatusCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                UserAccountDao.getInstance(mContext).invalidateUserAccount(userAccount);
+            }
+        }
+    }
+
+    /**
+     * Pages are fetched and parsed on a producer thread while this thread writes the previous ones, with at most
+     * {@link #PAGE_QUEUE_CAPACITY} parsed pages waiting. An interrupted sync continues after its last written page;
+     * repos removed on the server are then only swept by the next complete sync.
+     */
+    private void performSyncUserReposRest(final UserAccount userAccount, boolean syncLanguages, final CancellationToken cancellationToken) throws IOException, GitHubProtocolException {
+        final EtagStore etagStore = new EtagStore(mContext.getContentResolver(), userAccount.getRecordId());
+        final SyncCheckpoint checkpoint = SyncCheckpoint.load(mContext.getContentResolver(), userAccount.getRecordId(), RepoFetchService.SYNC_BACKEND_REST);
+        HashSet<String> unchangedPageUrls = new HashSet<>();
+        RepoSnapshot snapshot = null;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(PAGE_FETCH_THREAD_FACTORY);
+        try {
+            FetchPipeline<RepoPage> pipeline = new FetchPipeline<>(executor, PAGE_QUEUE_CAPACITY);
+            pipeline.submit(new FetchPipeline.Producer<RepoPage>() {
+                @Override
+                public void produce(FetchPipeline<RepoPage> pipeline) throws IOException, GitHubProtocolException, InterruptedException {
+                    String pageUrl = checkpoint.isResumed() ? checkpoint.getResumePage() : GitHubProtocol.getUserReposUrl();
+                    do {
+                        ConditionalRequest page = etagStore.get(pageUrl);
+                        List<RepoData> repoDataList = new ArrayList<>();
+                        pageUrl = GitHubProtocol.getUserRepos(page, repoDataList, userAccount.getUsername(), userAccount.getPassword(), cancellationToken);
+
+                        pipeline.put(new RepoPage(page, repoDataList, pageUrl));
+                    } while (pageUrl != null);
+                }
+            });
+
+            RepoPage repoPage;
+            while ((repoPage = pipeline.take()) != null) {
+                cancellationToken.throwIfCancelled();
+                if (repoPage.page.notModified) {
+                    unchangedPageUrls.add(repoPage.page.url);
+                } else {
+                    //Loaded once the first page changed; pages before it were unchanged and not written.
+                    if (snapshot == null) {
+                        snapshot = RepoSnapshot.load(mContext.getContentResolver(), userAccount.getRecordId());
+                    }
+                    saveRepoDataList(userAccount, repoPage.repoDataList, repoPage.page, snapshot, etagStore,
+                            repoPage.next != null ? checkpoint.buildSaveOperation(repoPage.next) : null, cancellationToken);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while syncing repos");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
+        //The repos of the pages before a resumed checkpoint were not taken from the snapshot.
+        if (snapshot != null && !checkpoint.isResumed()) {
+            addDeleteReposOperations(operationList, snapshot.getRemovedIds(unchangedPageUrls));
+        }
+        ContentProviderOperation clearCheckpoint = checkpoint.buildClearOperation();
+        if (clearCheckpoint != null) {
+            operationList.add(clearCheckpoint);
+        }
+        cancellationToken.throwIfCancelled();
+        applyBatch(operationList, "::performSyncUserReposRest", cancellationToken);
+
+        if (syncLanguages) {
+            performSyncRepoLanguages(userAccount, etagStore, System.currentTimeMillis() - sLanguageStalenessTtlMs, cancellationToken);
+        }
+    }
+
+    /**
+     * Syncs repos and their languages with one GraphQL request per page instead of 1 + N REST requests. GraphQL
+     * responses carry no validators, so every page is diffed against the stored rows and the REST list validators
+     * are dropped to keep a later REST sync from trusting rows it did not write.
+     */
+    private void performSyncUserReposGraphQL(final UserAccount userAccount, boolean syncLanguages, final CancellationToken cancellationToken) throws IOException, GitHubProtocolException {
+        EtagStore etagStore = new EtagStore(mContext.getContentResolver(), userAccount.getRecordId());
+        RepoSnapshot snapshot = RepoSnapshot.load(mContext.getContentResolver(), userAccount.getRecordId());
+        LanguageSnapshot languageSnapshot = LanguageSnapshot.load(mContext.getContentResolver(), userAccount.getRecordId());
+        final SyncCheckpoint checkpoint = SyncCheckpoint.load(mContext.getContentResolver(), userAccount.getRecordId(), RepoFetchService.SYNC_BACKEND_GRAPHQL);
+        boolean firstPage = !checkpoint.isResumed();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(PAGE_FETCH_THREAD_FACTORY);
+        try {
+            FetchPipeline<RepoPage> pipeline = new FetchPipeline<>(executor, PAGE_QUEUE_CAPACITY);
+            pipeline.submit(new FetchPipeline.Producer<RepoPage>() {
+                @Override
+                public void produce(FetchPipeline<RepoPage> pipeline) throws IOException, GitHubProtocolException, InterruptedException {
+                    String cursor = checkpoint.getResumePage();
+                    do {
+                        List<RepoData> repoDataList = new ArrayList<>();
+                        cursor = GitHubProtocol.getUserReposGraphQL(cursor, repoDataList, userAccount.getUsername(), userAccount.getPassword(), cancellationToken);
+
+                        pipeline.put(new RepoPage(null, repoDataList, cursor));
+                    } while (cursor != null);
+                }
+            });
+
+            RepoPage repoPage;
+            while ((repoPage = pipeline.take()) != null) {
+                cancellationToken.throwIfCancelled();
+                saveGraphQLRepoDataList(userAccount, repoPage.repoDataList, snapshot, languageSnapshot, etagStore, checkpoint, firstPage, repoPage.next, cancellationToken);
+                firstPage = false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while syncing repos");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        //Repos with more languages than a page carries are left flagged, their complete lists come from the REST api.
+        if (syncLanguages) {
+            cancellationToken.throwIfCancelled();
+            performSyncRepoLanguages(userAccount, etagStore, 0, cancellationToken);
+        }
+    }
+
+    /**
+     * @return true if the credentials were accepted
+     */
+    boolean validateUserCredentials(String username) {
+        UserAccount userAccount = UserAccountDao.getInstance(mContext).getAccountByUsername(username);
+        boolean validated = false;
+        if (userAccount != null) {
+
+            try {
+                String displayName = GitHubProtocol.getUserDisplayNameBasicAuthentication(userAccount.getUsername(), userAccount.getPassword());
+                userAccount.setDisplayName(displayName);
+                validated = true;
+            } catch (IOException e) {
+                Log.e(TAG, "::validateUserCredentials IOException", e);
+            } catch (GitHubProtocolException e) {
+                Log.e(TAG, "::validateUserCredentials GitHubProtocolException", e);
+            }
+
+            if (validated) {
+                UserAccountDao.getInstance(mContext).validateUserAccount(userAccount);
+            } else {
+                UserAccountDao.getInstance(mContext).invalidateUserAccount(userAccount);
+            }
+        }
+
+        return validated;
+    }
+
+    /**
+     * Writes the new and changed repos of one changed page. Repos on pages answered with 304 keep their rows
+     * untouched.
+     */
+    private void saveRepoDataList(UserAccount userAccount, List<RepoData> repoDataList, ConditionalRequest page, RepoSnapshot snapshot, EtagStore etagStore,
+                                  ContentProviderOperation checkpointOperation, CancellationToken cancellationToken) {
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
+        long userId = userAccount.getRecordId();
+
+        for (int i = 0; i < repoDataList.size(); ++i) {
+            RepoData repoData = repoDataList.get(i);
+
+            ContentProviderOperation operation = buildRepoOperation(repoData, userId, page.url, snapshot.take(repoData.serverId));
+            if (operation != null) {
+                operationList.add(operation);
+            }
+        }
+
+        operationList.add(etagStore.buildSaveOperation(page));
+        if (checkpointOperation != null) {
+            operationList.add(checkpointOperation);
+        }
+
+        applyBatch(operationList, "::saveRepoDataList", cancellationToken);
+    }
+
+    private void saveGraphQLRepoDataList(UserAccount userAccount, List<RepoData> repoDataList, RepoSnapshot snapshot,
+                                         LanguageSnapshot languageSnapshot, EtagStore etagStore, SyncCheckpoint checkpoint, boolean firstPage,
+                                         String nextCursor, CancellationToken cancellationToken) {
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<>();
+        HashMap<String, Integer> insertedLanguageMap = new HashMap<>();
+        long userId = userAccount.getRecordId();
+
+        if (firstPage) {
+            //Validators of languages_url stay, the GraphQL backend leaves the language rows they describe in place
+            //or rewrites them with what the server currently has.
+            ContentProviderOperation deleteEtags = etagStore.buildDeleteOperation(GitHubProtocol.getUserReposUrlPrefix());
+            if (deleteEtags != null) {
+                operationList.add(deleteEtags);
+            }
+        }
+
+        for (int i = 0; i < repoDataList.size(); ++i) {
+            RepoData repoData = repoDataList.get(i);
+            RepoSnapshot.Entry stored = snapshot.take(repoData.serverId);
+
+            //New repos are referenced through the result of their insert.
+            int repoBackReference = stored == null ? operationList.size() : -1;
+            long repoId = stored == null ? 0 : stored.id;
+
+            ContentProviderOperation repoOperation = buildRepoOperation(repoData, userId, null, stored);
+            if (repoOperation != null) {
+                operationList.add(repoOperation);
+            }
+
+            if (repoData.languages == null) {
+                //Writing the first page of languages would delete the others.
+                addRepoUpdateOperation(operationList, repoId, repoBackReference, buildNeedLanguageSyncValues());
+                continue;
+            }
+
+            boolean languagesChanged = addRepoLanguageOperations(operationList, repoData.languages, repoId, repoBackReference,
+                    stored == null ? null : languageSnapshot.get(stored.id), mLanguageDictionary, insertedLanguageMap);
+
+            //A written row may have tripped the pushed_at trigger, its languages are current regardless.
+            if (repoOperation != null || languagesChanged || stored.needLangSync) {
+                addLanguagesSyncedOperation(operationList, repoId, repoBackReference);
+            }
+        }
+
+        if (nextCursor == null) {
+            if (!checkpoint.isResumed()) {
+                addDeleteReposOperations(operationList, snapshot.getRemovedIds(Collections.<String>emptySet()));
+            }
+            ContentProviderOperation clearCheckpoint = checkpoint.buildClearOperation();
+            if (clearCheckpoint != null) {
+                operationList.add(clearCheckpoint);
+            }
+        } else if (!operationList.isEmpty()) {
+            operationList.add(checkpoint.buildSaveOperation(nextCursor));
+        }
+
+        ContentProviderResult[] results = applyBatch(operationList, "::saveGraphQLRepoDataList", cancellationToken);
+        if (results != null) {
+            putInsertedLanguageIds(results, mLanguageDictionary, insertedLanguageMap);
+        }
+    }
+
+    /**
+     * @return the insert or update that stores repoData, or null if the stored row is already up to date
+     */
+    private static ContentProviderOperation buildRepoOperation(RepoData repoData, long userId, String pageUrl, RepoSnapshot.Entry stored) {
+        ContentProviderOperation.Builder builder;
+        if (stored == null) {
+            builder = ContentProviderOperation.newInsert(ReposContract.makeInsertOrUpdateUri(ReposContract.Repos.CONTENT_URI));
+        } else if (stored.contentHash != repoData.getContentHash() || !TextUtils.equals(stored.pageUrl, pageUrl)) {
+            builder = ContentProviderOperation.newUpdate(ReposContract.Repos.CONTENT_URI);
+            builder.withSelection(ReposContract.RepoColumns._ID + "=?", new String[]{Long.toString(stored.id)});
+        } else {
+            return null;
+        }
+        builder.withValues(repoData.getContentValues(userId));
+        builder.withValue(ReposContract.RepoColumns.PAGE_URL, pageUrl);
+
+        return builder.build();
+    }
+
+    private static void addDeleteReposOperations(ArrayList<ContentProviderOperation> operationList, List<Long> repoIds) {
+        for (int start = 0; start < repoIds.size(); start += MAX_SELECTION_ARGS) {
+            int end = Math.min(start + MAX_SELECTION_ARGS, repoIds.size());
+            StringBuilder selection = new StringBuilder(ReposContract.RepoColumns._ID).append(" IN (");
+            String[] selectionArgs = new String[end - start];
+            for (int i = start; i < end; ++i) {
+                if (i > start) {
+                    selection.append(',');
+                }
+                selection.append('?');
+                selectionArgs[i - start] = repoIds.get(i).toString();
+            }
+            selection.append(')');
+
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newDelete(ReposContract.Repos.CONTENT_URI);
+            builder.withSelection(selection.toString(), selectionArgs);
+            operationList.add(builder.build());
+        }
+    }
+
+    /**
+     * @return the results, or null if the batch was empty, failed or its sync was cancelled
+     */
+    private ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operationList, String method, CancellationToken cancellationToken) {
+        if (operationList.isEmpty()) {
+            return null;
+        }
+        //The rows of a removed account are deleted right away, writing them first would be wasted.
+        if (cancellationToken.isCancelled()) {
+            Log.d(TAG, method + " skipped, sync cancelled");
+            return null;
+        }
+
+        try {
+            return mContext.getContentResolver().applyBatch(ReposContract.AUTHORITY, operationList);
+        } catch (OperationApplicationException | RemoteException e) {
+            Log.e(TAG, method + " Error writing to DB.", e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Fetches the languages of the flagged repos and of those last synced before staleBefore.
+     */
+    private void performSyncRepoLanguages(UserAccount userAccount, EtagStore etagStore, long staleBefore, CancellationToken cancellationToken) {
+        PriorityFetchQueue<LanguageFetch> fetches = new PriorityFetchQueue<>();
+        int fetchCount = 0;
+        Cursor cursor = mContext.getContentResolver().query(ReposContract.Repos.CONTENT_URI,
+                new String[]{ReposContract.RepoColumns._ID, ReposContract.RepoColumns.LANGUAGES_URL},
+                ReposContract.RepoColumns.USER_ID + "=? AND (" + ReposContract.RepoColumns.NEED_LANG_SYNC + "=1 OR " +
+                        ReposContract.RepoColumns.LANG_SYNCED_AT + "<?)",
+                new String[]{userAccount.getRecordId().toString(), Long.toString(staleBefore)}, null);
+
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                do {
+                    fetches.add(cursor.getLong(0), new LanguageFetch(cursor.getLong(0), etagStore.get(cursor.getString(1))));
+                    ++fetchCount;
+                } while (cursor.moveToNext());
+            }
+
+            cursor.close();
+        }
+
+        if (fetchCount == 0) {
+            return;
+        }
+
+        //Fetches run on the pool while this thread is the single writer. Fetchers stall once twice the pool size of
+        //results are waiting to be written.
+        int concurrency = Math.min(sLanguageFetchConcurrency, fetchCount);
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, LANGUAGE_FETCH_THREAD_FACTORY);
+        LanguageChunk chunk = new LanguageChunk(LanguageSnapshot.load(mContext.getContentResolver(), userAccount.getRecordId()), cancellationToken);
+        try {
+            FetchPipeline<LanguageFetch> pipeline = new FetchPipeline<>(executor, concurrency * 2);
+            for (int i = 0; i < concurrency; ++i) {
+                pipeline.submit(new LanguageFetchWorker(fetches, userAccount, cancellationToken));
+            }
+
+            LanguageFetch fetch;
+            while ((fetch = pipeline.take()) != null) {
+                cancellationToken.throwIfCancelled();
+                if (fetch.failed) {
+                    //Marked synced, so the repo is retried once its languages go stale instead of ahead of every later sync.
+                    chunk.addNotModified(fetch.repoId);
+                } else if (fetch.languageDataList != null) {
+                    chunk.addLanguages(fetch.repoId, fetch.languageDataList, etagStore.buildSaveOperation(fetch.languages));
+                } else {
+                    chunk.addNotModified(fetch.repoId);
+                }
+                //Results of repos on screen are committed as soon as none of them is left waiting.
+                long[] priorityRepoIds = mPriorityRepoIds;
+                if (chunk.isFull() || (contains(priorityRepoIds, fetch.repoId) && !fetches.containsAny(priorityRepoIds))) {
+                    chunk.flush();
+                }
+            }
+        } catch (GitHubRateLimitException e) {
+            //Languages fetched so far are still saved, the remaining repos still need a language sync after the reset.
+            Log.w(TAG, "::performSyncRepoLanguages rate limited", e);
+            scheduleSyncAfterRateLimitReset(userAccount, e.resetTimeMillis);
+        } catch (IOException e) {
+            if (cancellationToken.isCancelled()) {
+                Log.d(TAG, "::performSyncRepoLanguages cancelled");
+            } else {
+                Log.e(TAG, "::performSyncRepoLanguages IOException", e);
+            }
+        } catch (GitHubProtocolException e) {
+            Log.e(TAG, "::performSyncRepoLanguages GitHubProtocolException", e);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "::performSyncRepoLanguages interrupted", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            chunk.flush();
+        }
+    }
+
+    /**
+     * Restarts the sync shortly after the rate limit window of the account resets instead of failing it.
+     */
+    private void scheduleSyncAfterRateLimitReset(UserAccount userAccount, long resetTimeMillis) {
+        Log.d(TAG, "::scheduleSyncAfterRateLimitReset " + userAccount.getUsername() + " at " + resetTimeMillis);
+        SyncScheduler.scheduleResumeSync(mContext, userAccount, resetTimeMillis + RATE_LIMIT_RESUME_DELAY_MS);
+    }
+
+    private static boolean contains(long[] values, long value) {
+        for (long v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static ContentValues buildLanguagesSyncedValues() {
+        ContentValues values = new ContentValues();
+        values.put(ReposContract.RepoColumns.NEED_LANG_SYNC, false);
+        values.put(ReposContract.RepoColumns.LANG_SYNCED_AT, System.currentTimeMillis());
+
+        return values;
+    }
+
+    private static ContentValues buildNeedLanguageSyncValues() {
+        ContentValues values = new ContentValues();
+        values.put(ReposContract.RepoColumns.NEED_LANG_SYNC, true);
+
+        return values;
+    }
+
+    private static void putInsertedLanguageIds(ContentProviderResult[] results, LanguageDictionary languageDictionary, HashMap<String, Integer> insertedLanguageMap) {
+        for (Map.Entry<String, Integer> entry : insertedLanguageMap.entrySet()) {
+            languageDictionary.put(entry.getKey(), ContentUris.parseId(results[entry.getValue()].uri));
+        }
+    }
+
+    /**
+     * Appends the operations that bring the stored language map of one repo in line with languageDataList, skipping
+     * entries whose byte count did not change. The repo is identified either by repoId or, when repoBackReference is
+     * not negative, by the result of an earlier insert in the same batch.
+     *
+     * @param stored language id to byte count currently stored for the repo, or null if it has none
+     * @return true if any operation was appended
+     */
+    private static boolean addRepoLanguageOperations(ArrayList<ContentProviderOperation> operationList, List<LanguageData> languageDataList,
+                                                     long repoId, int repoBackReference, HashMap<Long, Long> stored,
+                                                     LanguageDictionary languageDictionary, HashMap<String, Integer> insertedLanguageMap) {
+        int startSize = operationList.size();
+        HashSet<Long> keptLanguageIds = new HashSet<>();
+        Uri languageInsertUri = ReposContract.makeInsertOrUpdateUri(ReposContract.Languages.CONTENT_URI);
+        Uri insertUri = ReposContract.makeInsertOrUpdateUri(ReposContract.LanguageRepoMap.CONTENT_URI);
+
+        for (int i = 0; i < languageDataList.size(); ++i) {
+            LanguageData languageData = languageDataList.get(i);
+
+            long languageId = languageDictionary.get(languageData.language);
+            if (languageId >= 0) {
+                keptLanguageIds.add(languageId);
+                Long storedBytes = stored != null ? stored.get(languageId) : null;
+                if (storedBytes != null && storedBytes == languageData.byteCount) {
+                    continue;
+                }
+            }
+
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(insertUri);
+            ContentValues values = new ContentValues();
+            values.put(ReposContract.LanguageRepoMapColumns.ON_SERVER, true);
+            values.put(ReposContract.LanguageRepoMapColumns.LANG_BYTES, languageData.byteCount);
+            if (repoBackReference >= 0) {
+                builder.withValueBackReference(ReposContract.LanguageRepoMapColumns.REPO_ID, repoBackReference);
+            } else {
+                values.put(ReposContract.LanguageRepoMapColumns.REPO_ID, repoId);
+            }
+
+            if (languageId < 0) {
+                Integer index = insertedLanguageMap.get(languageData.language);
+                if (index == null) {
+                    index = operationList.size();
+                    insertedLanguageMap.put(languageData.language, index);
+                    ContentProviderOperation.Builder langBuilder = ContentProviderOperation.newInsert(languageInsertUri);
+                    langBuilder.withValues(languageData.getContentValues());
+                    operationList.add(langBuilder.build());
+                }
+                builder.withValueBackReference(ReposContract.LanguageRepoMapColumns.LANGUAGE_ID, index);
+            } else {
+                values.put(ReposContract.LanguageRepoMapColumns.LANGUAGE_ID, languageId);
+            }
+            builder.withValues(values);
+            operationList.add(builder.build());
+        }
+
+        if (stored != null && keptLanguageIds.size() < stored.size()) {
+            StringBuilder selection = new StringBuilder(ReposContract.LanguageRepoMapColumns.REPO_ID).append("=? AND ")
+                    .append(ReposContract.LanguageRepoMapColumns.LANGUAGE_ID).append(" IN (");
+            ArrayList<String> selectionArgs = new ArrayList<>();
+            selectionArgs.add(Long.toString(repoId));
+            for (Long languageId : stored.keySet()) {
+                if (!keptLanguageIds.contains(languageId)) {
+                    selection.append(selectionArgs.size() > 1 ? ",?" : "?");
+                    selectionArgs.add(languageId.toString());
+                }
+            }
+            selection.append(')');
+
+            ContentProviderOperation.Builder builder = ContentProviderOperation.newDelete(ReposContract.LanguageRepoMap.CONTENT_URI);
+            builder.withSelection(selection.toString(), selectionArgs.toArray(new String[selectionArgs.size()]));
+            operationList.add(builder.build());
+        }
+
+        return operationList.size() > startSize;
+    }
+
+    /**
+     * Appends the update that marks the languages of one repo as synced. It has to follow the repo write in the batch,
+     * so it runs after the pushed_at trigger.
+     */
+    private static void addLanguagesSyncedOperation(ArrayList<ContentProviderOperation> operationList, long repoId, int repoBackReference) {
+        addRepoUpdateOperation(operationList, repoId, repoBackReference, buildLanguagesSyncedValues());
+    }
+
+    private static void addRepoUpdateOperation(ArrayList<ContentProviderOperation> operationList, long repoId, int repoBackReference, ContentValues values) {
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newUpdate(ReposContract.Repos.CONTENT_URI);
+        builder.withValues(values);
+        builder.withSelection(ReposContract.RepoColumns._ID + "=?", new String[]{Long.toString(repoId)});
+        if (repoBackReference >= 0) {
+            builder.withSelectionBackReference(0, repoBackReference);
+        }
+        operationList.add(builder.build());
+    }
+}
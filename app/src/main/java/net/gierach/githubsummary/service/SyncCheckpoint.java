@@ -0,0 +1,97 @@
+package net.gierach.githubsummary.service;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.provider.ReposContract.SyncCheckpointColumns;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the repo pages of an interrupted sync stopped. The next page is saved with
+ * {@link #buildSaveOperation(String)} in the batch of each written page, so the checkpoint never runs ahead of the
+ * data, and cleared in the batch that finishes the repo list. Languages need no checkpoint of their own: every
+ * written language map clears need_lang_sync of its repo in the same batch.
+ */
+class SyncCheckpoint {
+
+    //A resumed sync does not revalidate the pages before the checkpoint, so only a recent one is trusted.
+    private static final long MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String[] PROJECTION = new String[] {
+            SyncCheckpointColumns.BACKEND,
+            SyncCheckpointColumns.NEXT_PAGE,
+            SyncCheckpointColumns.UPDATED_AT
+    };
+
+    private final long mUserId;
+    private final int mBackend;
+    private final String mResumePage;
+    private boolean mStored;
+
+    private SyncCheckpoint(long userId, int backend, String resumePage, boolean stored) {
+        this.mUserId = userId;
+        this.mBackend = backend;
+        this.mResumePage = resumePage;
+        this.mStored = stored;
+    }
+
+    static SyncCheckpoint load(ContentResolver contentResolver, long userId, int backend) {
+        String resumePage = null;
+        boolean stored = false;
+
+        Cursor cursor = contentResolver.query(ReposContract.SyncCheckpoints.CONTENT_URI, PROJECTION,
+                SyncCheckpointColumns.USER_ID + "=?", new String[]{Long.toString(userId)}, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                stored = true;
+                if (cursor.getInt(0) == backend && System.currentTimeMillis() - cursor.getLong(2) < MAX_AGE_MS) {
+                    resumePage = cursor.getString(1);
+                }
+            }
+
+            cursor.close();
+        }
+
+        return new SyncCheckpoint(userId, backend, resumePage, stored);
+    }
+
+    /**
+     * @return the page url or cursor to continue from, or null to start from the first page
+     */
+    String getResumePage() {
+        return mResumePage;
+    }
+
+    boolean isResumed() {
+        return mResumePage != null;
+    }
+
+    ContentProviderOperation buildSaveOperation(String nextPage) {
+        mStored = true;
+
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newInsert(ReposContract.makeInsertOrUpdateUri(ReposContract.SyncCheckpoints.CONTENT_URI));
+        builder.withValue(SyncCheckpointColumns.USER_ID, mUserId);
+        builder.withValue(SyncCheckpointColumns.BACKEND, mBackend);
+        builder.withValue(SyncCheckpointColumns.NEXT_PAGE, nextPage);
+        builder.withValue(SyncCheckpointColumns.UPDATED_AT, System.currentTimeMillis());
+
+        return builder.build();
+    }
+
+    /**
+     * @return the operation that removes the checkpoint, or null if there is none to remove
+     */
+    ContentProviderOperation buildClearOperation() {
+        if (!mStored) {
+            return null;
+        }
+
+        ContentProviderOperation.Builder builder = ContentProviderOperation.newDelete(ReposContract.SyncCheckpoints.CONTENT_URI);
+        builder.withSelection(SyncCheckpointColumns.USER_ID + "=?", new String[]{Long.toString(mUserId)});
+
+        return builder.build();
+    }
+}
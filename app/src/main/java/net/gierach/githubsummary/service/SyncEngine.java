@@ -0,0 +1,375 @@
+package net.gierach.githubsummary.service;
+
+import android.content.Context;
+import android.util.Log;
+
+import net.gierach.githubsummary.model.SyncingStateManager;
+import net.gierach.githubsummary.model.UserAccount;
+import net.gierach.githubsummary.model.UserAccountDao;
+import net.gierach.githubsummary.protocol.CancellationToken;
+import net.gierach.githubsummary.protocol.GitHubSession;
+import net.gierach.githubsummary.provider.ReposContract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide runner for syncs and credential validations, shared by {@link RepoFetchService} and
+ * {@link SyncJobService}. Syncs of one account never overlap, while syncs of different
+ * accounts run in parallel on a shared bounded pool, highest priority first. Credential validations run on their
+ * own pool and are never queued behind a sync.
+ * <p>
+ * Sync requests for an account are coalesced: a request for an account whose sync is still waiting for a thread
+ * merges into it, and requests arriving while it runs merge into a single follow-up run. Merged runs keep the
+ * highest priority of their requests and sync languages if any of them asked for it.
+ */
+class SyncEngine {
+
+    private static final String TAG = "SyncEngine";
+
+    private static final long KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final int MAX_CONCURRENT_ACCOUNT_SYNCS = 3;
+    private static final int MAX_CONCURRENT_VALIDATIONS = 2;
+
+    private static SyncEngine sInstance;
+
+    static synchronized SyncEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncEngine(context, MAX_CONCURRENT_ACCOUNT_SYNCS, MAX_CONCURRENT_VALIDATIONS);
+        }
+
+        return sInstance;
+    }
+
+    interface IdleListener {
+        /**
+         * Called on a worker thread once no work is queued or running.
+         */
+        void onIdle();
+    }
+
+    private class ScheduledSync implements Runnable, Comparable<ScheduledSync> {
+        final AccountSync accountSync;
+        final int priority;
+        final long sequence;
+
+        ScheduledSync(AccountSync accountSync, int priority, long sequence) {
+            this.accountSync = accountSync;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(ScheduledSync other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+        @Override
+        public void run() {
+            runSync(accountSync);
+        }
+    }
+
+    private static class AccountSync {
+        final String username;
+        ScheduledSync scheduled;
+        //Of the queued or running sync; replaced whenever a new run is scheduled.
+        CancellationToken cancellationToken;
+        boolean running = false;
+        boolean syncLanguages;
+        boolean followUp = false;
+        int followUpPriority;
+        boolean followUpSyncLanguages;
+
+        AccountSync(String username) {
+            this.username = username;
+        }
+    }
+
+    private final Context mContext;
+    private final RepoSyncer mSyncer;
+    private final List<IdleListener> mIdleListeners = new ArrayList<>();
+    private final ThreadPoolExecutor mSyncExecutor;
+    private final ThreadPoolExecutor mValidationExecutor;
+
+    private final HashMap<String, AccountSync> mAccountSyncs = new HashMap<>();
+    private long mSequence = 0;
+    private int mOutstanding = 0;
+
+    private final UserAccountDao.AccountLifecycleListener mAccountLifecycleListener = new UserAccountDao.AccountLifecycleListener() {
+        @Override
+        public void onAccountRemoved(UserAccount userAccount) {
+            cancelSync(userAccount.getUsername());
+        }
+
+        @Override
+        public void onAccountDeselected(UserAccount userAccount) {
+            cancelSync(userAccount.getUsername());
+        }
+    };
+
+    private SyncEngine(Context context, int maxConcurrentSyncs, int maxConcurrentValidations) {
+        mContext = context.getApplicationContext();
+        mSyncer = new RepoSyncer(mContext);
+        mSyncExecutor = new ThreadPoolExecutor(maxConcurrentSyncs, maxConcurrentSyncs, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new NamedThreadFactory("AccountSync"));
+        mSyncExecutor.allowCoreThreadTimeOut(true);
+        mValidationExecutor = new ThreadPoolExecutor(maxConcurrentValidations, maxConcurrentValidations, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory("AccountValidation"));
+        mValidationExecutor.allowCoreThreadTimeOut(true);
+        UserAccountDao.addAccountLifecycleListener(mAccountLifecycleListener);
+    }
+
+    synchronized void addIdleListener(IdleListener listener) {
+        if (!mIdleListeners.contains(listener)) {
+            mIdleListeners.add(listener);
+        }
+    }
+
+    synchronized void removeIdleListener(IdleListener listener) {
+        mIdleListeners.remove(listener);
+    }
+
+    /**
+     * @param priority      higher values run first and win when requests are merged
+     * @param syncLanguages false to only refresh the repo list
+     */
+    void requestSync(String username, int priority, boolean syncLanguages) {
+        ScheduledSync toExecute = null;
+        synchronized (this) {
+            AccountSync accountSync = mAccountSyncs.get(username);
+            if (accountSync == null) {
+                accountSync = new AccountSync(username);
+                mAccountSyncs.put(username, accountSync);
+            }
+
+            if (accountSync.running) {
+                if (accountSync.followUp) {
+                    Log.d(TAG, "::requestSync merged into the follow-up of " + username);
+                    accountSync.followUpPriority = Math.max(accountSync.followUpPriority, priority);
+                    accountSync.followUpSyncLanguages |= syncLanguages;
+                } else {
+                    ++mOutstanding;
+                    accountSync.followUp = true;
+                    accountSync.followUpPriority = priority;
+                    accountSync.followUpSyncLanguages = syncLanguages;
+                }
+            } else if (accountSync.scheduled != null) {
+                Log.d(TAG, "::requestSync merged into the queued sync of " + username);
+                accountSync.syncLanguages |= syncLanguages;
+                if (priority > accountSync.scheduled.priority && mSyncExecutor.remove(accountSync.scheduled)) {
+                    accountSync.scheduled = new ScheduledSync(accountSync, priority, mSequence++);
+                    toExecute = accountSync.scheduled;
+                }
+            } else {
+                ++mOutstanding;
+                accountSync.syncLanguages = syncLanguages;
+                accountSync.cancellationToken = new CancellationToken();
+                accountSync.scheduled = new ScheduledSync(accountSync, priority, mSequence++);
+                toExecute = accountSync.scheduled;
+            }
+        }
+
+        if (toExecute != null) {
+            mSyncExecutor.execute(toExecute);
+        }
+    }
+
+    /**
+     * Requests a sync of every validated account. The accounts are read on a worker thread since the first read
+     * waits for them to load, so this is safe to call from the main thread; the engine stays busy until their syncs
+     * are queued. Languages of accounts low on rate limit budget are synced after its reset instead.
+     */
+    void requestSyncOfValidatedAccounts(final int priority, final boolean syncLanguages) {
+        synchronized (this) {
+            ++mOutstanding;
+        }
+
+        mValidationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (UserAccount userAccount : UserAccountDao.getInstance(mContext).getValidatedAccounts()) {
+                        requestSync(userAccount.getUsername(), priority,
+                                syncLanguages && !SyncScheduler.deferLanguageSyncOnLowBudget(mContext, userAccount));
+                    }
+                } finally {
+                    finishTask();
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches the languages of these repos before the others in running and later language syncs.
+     */
+    void setPriorityRepos(long[] repoIds) {
+        mSyncer.setPriorityRepoIds(repoIds);
+    }
+
+    /**
+     * Drops the queued and follow-up syncs of the account and aborts its running sync at its next request or write.
+     * Used when the account is removed, whose rows are about to be deleted, or stops being the current account, which
+     * the periodic background sync then picks up again from the checkpoint of the aborted run.
+     */
+    void cancelSync(String username) {
+        CancellationToken cancellationToken;
+        int dropped = 0;
+        synchronized (this) {
+            AccountSync accountSync = mAccountSyncs.get(username);
+            if (accountSync == null) {
+                return;
+            }
+
+            Log.d(TAG, "::cancelSync " + username);
+            cancellationToken = accountSync.cancellationToken;
+            if (accountSync.running) {
+                if (accountSync.followUp) {
+                    accountSync.followUp = false;
+                    ++dropped;
+                }
+            } else if (accountSync.scheduled != null && mSyncExecutor.remove(accountSync.scheduled)) {
+                accountSync.scheduled = null;
+                mAccountSyncs.remove(username);
+                ++dropped;
+            }
+            //A sync already taken off the queue but not yet running finds its token cancelled.
+        }
+
+        cancellationToken.cancel();
+        for (int i = 0; i < dropped; ++i) {
+            finishTask();
+        }
+    }
+
+    /**
+     * Validates the credentials of the account and, once they are accepted, runs its first sync.
+     */
+    void requestValidation(final String username) {
+        synchronized (this) {
+            ++mOutstanding;
+        }
+
+        mValidationExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (mSyncer.validateUserCredentials(username)) {
+                        requestSync(username, RepoFetchService.SYNC_PRIORITY_USER, true);
+                    }
+                } finally {
+                    finishTask();
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on a sync thread. The account keeps reporting as syncing until its follow-ups are done, so back to back
+     * syncs do not flicker.
+     */
+    private void runSync(AccountSync accountSync) {
+        boolean syncLanguages;
+        CancellationToken cancellationToken;
+        synchronized (this) {
+            accountSync.scheduled = null;
+            accountSync.running = true;
+            syncLanguages = accountSync.syncLanguages;
+            cancellationToken = accountSync.cancellationToken;
+        }
+
+        UserAccount userAccount = UserAccountDao.getInstance(mContext).getAccountByUsername(accountSync.username);
+        try {
+            if (userAccount != null && Boolean.TRUE.equals(userAccount.isValidated()) && userAccount.getRecordId() != null &&
+                    !cancellationToken.isCancelled()) {
+                SyncingStateManager.getInstance().syncingStartedForUserAccount(userAccount);
+                mSyncer.syncUserRepos(userAccount, syncLanguages, cancellationToken);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "::runSync sync of " + accountSync.username + " failed", e);
+        }
+
+        ScheduledSync followUp = null;
+        synchronized (this) {
+            accountSync.running = false;
+            if (accountSync.followUp) {
+                accountSync.followUp = false;
+                accountSync.syncLanguages = accountSync.followUpSyncLanguages;
+                accountSync.cancellationToken = new CancellationToken();
+                accountSync.scheduled = new ScheduledSync(accountSync, accountSync.followUpPriority, mSequence++);
+                followUp = accountSync.scheduled;
+            } else {
+                mAccountSyncs.remove(accountSync.username);
+                if (userAccount != null) {
+                    //Still under the engine lock so a new sync of the account cannot report started first.
+                    SyncingStateManager.getInstance().syncingFinishedForUserAccount(userAccount);
+                }
+            }
+        }
+
+        if (followUp != null) {
+            mSyncExecutor.execute(followUp);
+        }
+        finishTask();
+    }
+
+    private void finishTask() {
+        IdleListener[] listeners = null;
+        synchronized (this) {
+            if (--mOutstanding == 0) {
+                notifyAll();
+                listeners = mIdleListeners.toArray(new IdleListener[mIdleListeners.size()]);
+            }
+        }
+
+        if (listeners != null) {
+            //A sync writes in many batches; the log is folded back into the database once they are all done. Only an
+            //optimization, so a failure must not take down the sync thread.
+            try {
+                mContext.getContentResolver().call(ReposContract.AUTHORITY_URI, ReposContract.METHOD_WAL_CHECKPOINT, null, null);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "::finishTask checkpoint failed", e);
+            }
+            for (IdleListener listener : listeners) {
+                listener.onIdle();
+            }
+        }
+    }
+
+    /**
+     * Blocks until no work is queued or running, or the timeout elapses.
+     *
+     * @return true if the engine is idle
+     */
+    synchronized boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mOutstanding > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+
+    synchronized boolean isIdle() {
+        return mOutstanding == 0;
+    }
+
+    void shutdown() {
+        UserAccountDao.removeAccountLifecycleListener(mAccountLifecycleListener);
+        mSyncExecutor.shutdownNow();
+        mValidationExecutor.shutdownNow();
+        GitHubSession.getInstance().shutdown();
+    }
+}
@@ -0,0 +1,84 @@
+package net.gierach.githubsummary.service;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the jobs scheduled by {@link SyncScheduler} on the shared {@link SyncEngine}. A job finishes once the
+ * engine has no work left, which also covers syncs requested by the user while it ran.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService {
+
+    private class JobIdleListener implements SyncEngine.IdleListener {
+        final JobParameters params;
+        final AtomicBoolean finished = new AtomicBoolean(false);
+
+        JobIdleListener(JobParameters params) {
+            this.params = params;
+        }
+
+        boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+
+            SyncEngine.getInstance(SyncJobService.this).removeIdleListener(this);
+            synchronized (mRunningJobs) {
+                mRunningJobs.remove(params.getJobId());
+            }
+            return true;
+        }
+
+        @Override
+        public void onIdle() {
+            if (finish()) {
+                jobFinished(params, false);
+            }
+        }
+    }
+
+    private final SparseArray<JobIdleListener> mRunningJobs = new SparseArray<>();
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        SyncEngine syncEngine = SyncEngine.getInstance(this);
+        String username = params.getExtras().getString(SyncScheduler.JOB_EXTRA_USERNAME);
+
+        if (username != null) {
+            syncEngine.requestSync(username, RepoFetchService.SYNC_PRIORITY_BACKGROUND, true);
+        } else {
+            boolean syncLanguages = params.getJobId() == SyncScheduler.JOB_ID_LANGUAGE_SYNC;
+            //Keeps the engine busy until the accounts are looked up, so the job cannot finish before its syncs start.
+            syncEngine.requestSyncOfValidatedAccounts(RepoFetchService.SYNC_PRIORITY_BACKGROUND, syncLanguages);
+        }
+
+        JobIdleListener listener = new JobIdleListener(params);
+        synchronized (mRunningJobs) {
+            mRunningJobs.put(params.getJobId(), listener);
+        }
+        syncEngine.addIdleListener(listener);
+
+        //The syncs may have finished before the listener was added.
+        return !(syncEngine.isIdle() && listener.finish());
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        JobIdleListener listener;
+        synchronized (mRunningJobs) {
+            listener = mRunningJobs.get(params.getJobId());
+        }
+        if (listener != null) {
+            listener.finish();
+        }
+
+        //Periodic jobs run again at their next interval anyway, a stopped resume after a rate limit is retried.
+        return params.getExtras().getString(SyncScheduler.JOB_EXTRA_USERNAME) != null;
+    }
+}
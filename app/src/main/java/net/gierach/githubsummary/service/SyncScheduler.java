@@ -0,0 +1,194 @@
+package net.gierach.githubsummary.service;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import net.gierach.githubsummary.model.UserAccount;
+import net.gierach.githubsummary.protocol.GitHubRateLimiter;
+import net.gierach.githubsummary.protocol.RateLimitBudget;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the periodic background syncs of all validated accounts. With JobScheduler the repo list is refreshed
+ * on any network, while languages are only synced on an unmetered network while charging; the system runs both
+ * jobs together with the network work of other apps. Older devices fall back to an inexact alarm, which the system
+ * batches with other alarms, and only sync languages if the same conditions hold when it fires.
+ */
+public class SyncScheduler {
+
+    private static final String TAG = "SyncScheduler";
+
+    static final int JOB_ID_REPO_REFRESH = 1;
+    static final int JOB_ID_LANGUAGE_SYNC = 2;
+    //Plus the record id of the account, so each account has one pending resume.
+    private static final int JOB_ID_RESUME_SYNC_BASE = 1000;
+
+    static final String JOB_EXTRA_USERNAME = "username";
+
+    private static final long REPO_REFRESH_INTERVAL_MS = AlarmManager.INTERVAL_HOUR;
+    private static final long LANGUAGE_SYNC_INTERVAL_MS = TimeUnit.HOURS.toMillis(12);
+    //A periodic language sync is deferred while less than this share of the core budget is left.
+    private static final int LANGUAGE_SYNC_MIN_BUDGET_DIVISOR = 10;
+
+    /**
+     * Schedules the periodic syncs unless they already are, so calling this on every launch keeps the period.
+     */
+    public static void schedulePeriodicSync(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJobs(context);
+        } else {
+            scheduleAlarm(context);
+        }
+    }
+
+    public static void cancelPeriodicSync(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (jobScheduler != null) {
+                jobScheduler.cancel(JOB_ID_REPO_REFRESH);
+                jobScheduler.cancel(JOB_ID_LANGUAGE_SYNC);
+            }
+        } else {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            if (alarmManager != null) {
+                alarmManager.cancel(buildAlarmIntent(context));
+            }
+        }
+    }
+
+    /**
+     * Syncs the account once more at the given wall clock time, replacing a resume scheduled before. With
+     * JobScheduler the sync also waits for a network.
+     */
+    static void scheduleResumeSync(Context context, UserAccount userAccount, long resumeTimeMillis) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleResumeJob(context, userAccount, Math.max(0, resumeTimeMillis - System.currentTimeMillis()));
+        } else {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            if (alarmManager != null) {
+                Intent intent = RepoFetchService.buildSyncIntent(context, userAccount, RepoFetchService.SYNC_PRIORITY_BACKGROUND);
+                alarmManager.set(AlarmManager.RTC, resumeTimeMillis, PendingIntent.getService(context,
+                        userAccount.getUsername().hashCode(), intent, PendingIntent.FLAG_UPDATE_CURRENT));
+            }
+        }
+    }
+
+    /**
+     * Defers a periodic language sync of the account to the reset of its core rate limit window while little of its
+     * budget is left, so the language fetches do not run into the reserve of the repo list syncs.
+     *
+     * @return true if the language sync was deferred and only the repo list should be refreshed now
+     */
+    static boolean deferLanguageSyncOnLowBudget(Context context, UserAccount userAccount) {
+        RateLimitBudget budget = GitHubRateLimiter.getInstance().getBudget(userAccount.getUsername(), GitHubRateLimiter.RESOURCE_CORE);
+        if (budget == null || budget.remaining * LANGUAGE_SYNC_MIN_BUDGET_DIVISOR >= budget.limit) {
+            return false;
+        }
+
+        Log.d(TAG, "::deferLanguageSyncOnLowBudget " + userAccount.getUsername() + " has " + budget.remaining + " of " + budget.limit + " left");
+        scheduleResumeSync(context, userAccount, budget.resetTimeMillis + RepoSyncer.RATE_LIMIT_RESUME_DELAY_MS);
+        return true;
+    }
+
+    /**
+     * @return true if the device is charging and on an unmetered network
+     */
+    static boolean isLanguageSyncWindow(Context context) {
+        Intent batteryStatus = context.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null || batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) == 0) {
+            return false;
+        }
+
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+
+        return networkInfo != null && networkInfo.isConnected() && !connectivityManager.isActiveNetworkMetered();
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        boolean repoRefreshPending = false;
+        boolean languageSyncPending = false;
+        List<JobInfo> pendingJobs = jobScheduler.getAllPendingJobs();
+        for (JobInfo jobInfo : pendingJobs) {
+            if (jobInfo.getId() == JOB_ID_REPO_REFRESH) {
+                repoRefreshPending = true;
+            } else if (jobInfo.getId() == JOB_ID_LANGUAGE_SYNC) {
+                languageSyncPending = true;
+            }
+        }
+
+        ComponentName service = new ComponentName(context, SyncJobService.class);
+        if (!repoRefreshPending) {
+            Log.d(TAG, "::scheduleJobs scheduling repo refresh");
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_REPO_REFRESH, service)
+                    .setPeriodic(REPO_REFRESH_INTERVAL_MS)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                    .setPersisted(true)
+                    .build());
+        }
+        if (!languageSyncPending) {
+            Log.d(TAG, "::scheduleJobs scheduling language sync");
+            jobScheduler.schedule(new JobInfo.Builder(JOB_ID_LANGUAGE_SYNC, service)
+                    .setPeriodic(LANGUAGE_SYNC_INTERVAL_MS)
+                    .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                    .setRequiresCharging(true)
+                    .setPersisted(true)
+                    .build());
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleResumeJob(Context context, UserAccount userAccount, long delayMillis) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString(JOB_EXTRA_USERNAME, userAccount.getUsername());
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID_RESUME_SYNC_BASE + userAccount.getRecordId().intValue(),
+                new ComponentName(context, SyncJobService.class))
+                .setMinimumLatency(delayMillis)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setExtras(extras)
+                .build());
+    }
+
+    private static void scheduleAlarm(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager != null) {
+            //Not a wakeup alarm, a sleeping device syncs the next time it wakes up anyway.
+            alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + REPO_REFRESH_INTERVAL_MS,
+                    REPO_REFRESH_INTERVAL_MS, buildAlarmIntent(context));
+        }
+    }
+
+    private static PendingIntent buildAlarmIntent(Context context) {
+        return PendingIntent.getService(context, 0, RepoFetchService.buildScheduledSyncIntent(context), PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
@@ -1,6 +1,7 @@
 package net.gierach.structured_provider;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
@@ -19,6 +20,25 @@ public abstract class DatabaseOpenHelper extends SQLiteOpenHelper {
 
         this.mContext = context;
         this.mDatabaseVersion = databaseVersion;
+
+        //Lets queries run on pooled reader connections while a batch is being written.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Copies the committed pages of the write-ahead log back into the database without waiting for readers, so the
+     * log does not keep growing over a long series of batches. SQLite also checkpoints on its own once the log
+     * reaches 1000 pages.
+     */
+    public void checkpointWriteAheadLog() {
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(PASSIVE);", null);
+        try {
+            if (cursor.moveToFirst() && cursor.getInt(0) != 0) {
+                Log.w(TAG, "Write-ahead log checkpoint was blocked");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     protected ProviderHandlerDependencyGraph getDependencyGraph() {
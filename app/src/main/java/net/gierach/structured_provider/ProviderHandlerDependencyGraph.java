@@ -161,6 +161,17 @@ public class ProviderHandlerDependencyGraph {
             }
         }
 
+        for (int i = 0; i < this.mTables.size(); ++i) {
+            TableBasedProviderHandler table = this.mTables.get(i);
+
+            String[] seedCommands = table.getSeedDataCommands(oldVersion, newVersion);
+            if (seedCommands != null) {
+                for (String command : seedCommands) {
+                    executeAndLogSQL(db, command);
+                }
+            }
+        }
+
         for (ViewBasedProviderHandler view : this.mViews.values()) {
             if (view.hasChangesOnUpgrade(oldVersion, newVersion)) {
                 markViewChanged(view.getName(), viewChangeList);
@@ -18,6 +18,7 @@ public class ProviderTransaction implements SQLiteTransactionListener {
     public final HashSet<Uri> mPendingNotificationUris = new HashSet<>();
     public final SQLiteDatabase mDb;
     private final StructuredContentProvider mContentProvider;
+    private boolean mCommitted = false;
 
     public ProviderTransaction(StructuredContentProvider contentProvider, SQLiteDatabase db) {
         this.mContentProvider = contentProvider;
@@ -32,14 +33,37 @@ public class ProviderTransaction implements SQLiteTransactionListener {
         this.mDb.setTransactionSuccessful();
     }
 
+    /**
+     * Ends the transaction and, if it was committed, sends its change notifications. They are only sent once the
+     * commit is complete, since readers do not wait for the writer and would otherwise requery the old data.
+     */
     public void endTransaction() {
         this.mDb.endTransaction();
+
+        if (this.mCommitted) {
+            this.mCommitted = false;
+            ContentResolver cr = this.mContentProvider.getContext().getContentResolver();
+            if (StructuredContentProvider.DEBUG) {
+                StringBuilder sb = new StringBuilder();
+                for (Uri uri : this.mPendingNotificationUris) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(uri.getPath());
+                }
+                Log.v(TAG, "Sending " + mPendingNotificationUris.size() + " change notification(s): " + sb.toString());
+            }
+            for (Uri uri : this.mPendingNotificationUris) {
+                cr.notifyChange(uri, null);
+            }
+        }
     }
 
     @Override
     public void onBegin() {
         this.mediaInfoTransactions.clear();
         this.mPendingNotificationUris.clear();
+        this.mCommitted = false;
     }
 
     @Override
@@ -47,20 +71,7 @@ public class ProviderTransaction implements SQLiteTransactionListener {
         for (Pair<ProviderHandler, Object> pair : this.mediaInfoTransactions) {
             pair.first.commitTransaction(this.mContentProvider, this.mDb, pair.second);
         }
-        ContentResolver cr = this.mContentProvider.getContext().getContentResolver();
-        if (StructuredContentProvider.DEBUG) {
-            StringBuilder sb = new StringBuilder();
-            for (Uri uri : this.mPendingNotificationUris) {
-                if (sb.length() > 0) {
-                    sb.append(", ");
-                }
-                sb.append(uri.getPath());
-            }
-            Log.v(TAG, "Sending " + mPendingNotificationUris.size() + " change notification(s): " + sb.toString());
-        }
-        for (Uri uri : this.mPendingNotificationUris) {
-            cr.notifyChange(uri, null);
-        }
+        this.mCommitted = true;
     }
 
     @Override
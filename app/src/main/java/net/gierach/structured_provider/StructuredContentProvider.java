@@ -13,6 +13,7 @@ import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Bundle;
 import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
@@ -21,9 +22,7 @@ import android.util.SparseArray;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class StructuredContentProvider extends ContentProvider {
 
@@ -55,9 +54,13 @@ public abstract class StructuredContentProvider extends ContentProvider {
 
     private DatabaseOpenHelper mOpenHelper;
 
+    //Only accessed while holding mWriteLock, so a write on the thread running applyBatch joins its transaction.
     private ProviderTransaction mTransaction = null;
 
-    private ReadWriteLock mLock;
+    //Serializes writers only. The database runs in write-ahead logging mode, so queries read the last committed
+    //state on a pooled connection without waiting for a running batch. It is one lock for all tables: SQLite admits
+    //a single write transaction at a time and triggers write to tables other than the one a handler owns.
+    private ReentrantLock mWriteLock;
 
     protected StructuredContentProvider(String authority) {
         this.mAuthority = authority;
@@ -67,7 +70,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
     public boolean onCreate() {
 
         this.mOpenHelper = instantiateDatabaseOpenHelper();
-        this.mLock = new ReentrantReadWriteLock();
+        this.mWriteLock = new ReentrantLock();
 
         registerProviderHandlerPaths();
 
@@ -97,14 +100,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
         String having = uri.getQueryParameter(StructuredProviderContract.QUERY_STR_HAVING);
 
         ProviderContext context = new ProviderContext(this, this.mOpenHelper.getReadableDatabase(), uri, null, null);
-        Cursor cursor = null;
-
-        this.mLock.readLock().lock();
-        try {
-            cursor = handler.handleQuery(context, projection, selection, selectionArgs, sortOrder, null, having, limit);
-        } finally {
-            this.mLock.readLock().unlock();
-        }
+        Cursor cursor = handler.handleQuery(context, projection, selection, selectionArgs, sortOrder, null, having, limit);
         if (cursor != null) {
             cursor.setNotificationUri(getContext().getContentResolver(), handler.getContentUri());
         }
@@ -147,7 +143,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
         long rowId;
         Uri newEntryUri;
         Set<Uri> notiUris;
-        this.mLock.writeLock().lock();
+        this.mWriteLock.lock();
         try {
 
             SQLiteDatabase db;
@@ -173,7 +169,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
                 notiUris = null;
             }
         } finally {
-            this.mLock.writeLock().unlock();
+            this.mWriteLock.unlock();
         }
 
         if (notiUris != null) {
@@ -202,7 +198,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
 
         Set<Uri> notiUris = new HashSet<>();
         int numDeleted = 0;
-        this.mLock.writeLock().lock();
+        this.mWriteLock.lock();
         try {
 
             SQLiteDatabase db;
@@ -227,7 +223,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
                 notiUris = null;
             }
         } finally {
-            this.mLock.writeLock().unlock();
+            this.mWriteLock.unlock();
         }
 
         if (notiUris != null) {
@@ -251,43 +247,37 @@ public abstract class StructuredContentProvider extends ContentProvider {
 
         ContentProviderResult[] result = new ContentProviderResult[operations.size()];
 
-        final SQLiteDatabase db;
-        final Lock lock;
-        if (hasWrite) {
-            db = this.mOpenHelper.getWritableDatabase();
-            lock = this.mLock.writeLock();
+        //A batch of queries only reads, so like a single query it takes no lock.
+        if (!hasWrite) {
+            for (int i = 0; i < operations.size(); ++i) {
+                result[i] = operations.get(i).apply(this, result, i);
+            }
 
-        } else {
-            db = this.mOpenHelper.getReadableDatabase();
-            lock = this.mLock.readLock();
+            return result;
         }
-        lock.lock();
+
+        final SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
+        this.mWriteLock.lock();
         try {
-            if (hasWrite) {
-                this.mTransaction = new ProviderTransaction(this, db);
-                this.mTransaction.beginTransaction();
-            }
+            this.mTransaction = new ProviderTransaction(this, db);
+            this.mTransaction.beginTransaction();
             int i = 0;
             try {
                 for (; i < operations.size(); ++i) {
                     ContentProviderOperation operation = operations.get(i);
                     result[i] = operation.apply(this, result, i);
                 }
-                if (hasWrite) {
-                    this.mTransaction.setTransactionSuccessful();
-                }
+                this.mTransaction.setTransactionSuccessful();
             } catch (OperationApplicationException oae) {
                 ContentProviderOperation failed = operations.get(i);
                 Log.e(TAG, "Error applying batch. Failed : " + failed, oae);
                 throw oae;
             } finally {
-                if (hasWrite) {
-                    this.mTransaction.endTransaction();
-                    this.mTransaction = null;
-                }
+                this.mTransaction.endTransaction();
+                this.mTransaction = null;
             }
         } finally {
-            lock.unlock();
+            this.mWriteLock.unlock();
         }
 
         return result;
@@ -311,7 +301,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
 
         int numInserted = 0;
 
-        this.mLock.writeLock().lock();
+        this.mWriteLock.lock();
         try {
             SQLiteDatabase db = this.mOpenHelper.getWritableDatabase();
             ProviderTransaction transaction = new ProviderTransaction(this, db);
@@ -332,7 +322,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
                 transaction.endTransaction();
             }
         } finally {
-            this.mLock.writeLock().unlock();
+            this.mWriteLock.unlock();
         }
 
         return numInserted;
@@ -354,7 +344,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
 
         int numUpdated = 0;
         Set<Uri> notiUris = new HashSet<>();
-        this.mLock.writeLock().lock();
+        this.mWriteLock.lock();
         try {
 
             SQLiteDatabase db;
@@ -382,7 +372,7 @@ public abstract class StructuredContentProvider extends ContentProvider {
                 notiUris = null;
             }
         } finally {
-            this.mLock.writeLock().unlock();
+            this.mWriteLock.unlock();
         }
 
         if (notiUris != null) {
@@ -393,6 +383,24 @@ public abstract class StructuredContentProvider extends ContentProvider {
 
     }
 
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (StructuredProviderContract.METHOD_WAL_CHECKPOINT.equals(method)) {
+            warnIfOnMainThread();
+
+            //Taken so the checkpoint does not run into a batch still appending to the log.
+            this.mWriteLock.lock();
+            try {
+                this.mOpenHelper.checkpointWriteAheadLog();
+            } finally {
+                this.mWriteLock.unlock();
+            }
+            return null;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
     private void publishNotis(Set<Uri> notiUris) {
         ContentResolver contentResolver = getContext().getContentResolver();
         if (DEBUG) {
@@ -8,6 +8,12 @@ public class StructuredProviderContract {
     public static final String QUERY_STR_FTS_FILTER = FullTextSearchJoiner.QUERY_STR_FTS_FILTER;
     public static final String QUERY_STR_HAVING = "having";
 
+    /**
+     * {@link android.content.ContentResolver#call} method that checkpoints the write-ahead log, for writers to call
+     * once a burst of batches is done.
+     */
+    public static final String METHOD_WAL_CHECKPOINT = "walCheckpoint";
+
     public interface BaseSearchColumns {
 
         String _ID = "docid";
@@ -4,19 +4,26 @@ import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
 
 public abstract class TableBasedProviderHandler implements ProviderHandler {
 
     private static final String TAG = "TableBasedProviderHndlr";
 
+    private static volatile Boolean sSupportsUpsertReturning = null;
+
     public static String fieldTypeToSqlType(int fieldType) {
         switch (fieldType) {
             case Cursor.FIELD_TYPE_STRING:
@@ -230,6 +237,7 @@ public abstract class TableBasedProviderHandler implements ProviderHandler {
     protected final String mEntryContentType;
     protected final Uri mContentUri;
     protected ArrayList<String> mDependentViews = null;
+    private volatile Boolean mHasUniqueKey = null;
 
     public TableBasedProviderHandler(String tableName, String contentType, String entryContentType, Uri contentUri) {
         this.mTableName = tableName;
@@ -412,6 +420,20 @@ public abstract class TableBasedProviderHandler implements ProviderHandler {
         return null;
     }
 
+    /**
+     * getSeedDataCommands will be called during the creation and the upgrade procedure for the entire database, after
+     * the data upgrade commands of all tables. Unlike getUpgradeDataCommands it is also called when the database is
+     * created, with an oldVersion of 0, so it can insert rows the table must hold from a given version on. The
+     * implementation of this method should return null if there are no commands to be executed.
+     *
+     * @param oldVersion
+     * @param newVersion
+     * @return
+     */
+    public String[] getSeedDataCommands(int oldVersion, int newVersion) {
+        return null;
+    }
+
     /**
      * getUpgradeIndexCommands will be called during the upgrade procedure for the entire database. It will be called
      * after all tables have had their table structure update commands executed. The implementation of this method should
@@ -506,23 +528,38 @@ public abstract class TableBasedProviderHandler implements ProviderHandler {
                     }
                 }
                 if (canLookup) {
-                    Long rowId = null;
+                    long rowId = 0;
                     String idFieldName = getBaseIdField();
-                    String[] argArray = null;
-                    if (selectionArgs.size() > 0) {
-                        argArray = selectionArgs.toArray(new String[selectionArgs.size()]);
-                    }
-                    Cursor cursor = providerContext.db.query(this.mTableName, new String[]{idFieldName}, selection.toString(), argArray, null, null, null);
-                    if (cursor != null) {
-                        if (cursor.getCount() == 1 && cursor.moveToFirst()) {
-                            rowId = cursor.getLong(0);
+                    //A unique index never conflicts on NULL, so a key with a NULL in it is looked up instead.
+                    if (selectionArgs.size() == insertOrUpdateKeyFields.length && hasUniqueKey(providerContext.db, insertOrUpdateKeyFields)) {
+                        if (supportsUpsertReturning(providerContext.db)) {
+                            return upsertRow(providerContext.db, values, insertOrUpdateKeyFields);
+                        }
+
+                        long insertedId = insertOrIgnore(providerContext.db, values);
+                        if (insertedId != -1) {
+                            return insertedId;
+                        }
+
+                        //Batches back-reference the id of an existing row too, which an UPDATE cannot report.
+                        rowId = lookupKeyRowId(providerContext.db, values, insertOrUpdateKeyFields);
+                    } else {
+                        String[] argArray = null;
+                        if (selectionArgs.size() > 0) {
+                            argArray = selectionArgs.toArray(new String[selectionArgs.size()]);
                         }
+                        Cursor cursor = providerContext.db.query(this.mTableName, new String[]{idFieldName}, selection.toString(), argArray, null, null, null);
+                        if (cursor != null) {
+                            if (cursor.getCount() == 1 && cursor.moveToFirst()) {
+                                rowId = cursor.getLong(0);
+                            }
 
-                        cursor.close();
+                            cursor.close();
+                        }
                     }
 
-                    if (rowId != null) {
-                        providerContext.db.update(this.mTableName, values, idFieldName + "=?", new String[]{rowId.toString()});
+                    if (rowId > 0) {
+                        providerContext.db.update(this.mTableName, values, idFieldName + "=?", new String[]{Long.toString(rowId)});
                         ProviderContext updateContext = new ProviderContext(providerContext.contentProvider,
                                                                             providerContext.db,
                                                                             ContentUris.withAppendedId(getContentUri(), rowId),
@@ -551,6 +588,167 @@ public abstract class TableBasedProviderHandler implements ProviderHandler {
         return providerContext.db.update(this.mTableName, values, selection, selectionArgs);
     }
 
+    /**
+     * Inserts the row or updates the one with the same key in a single statement.
+     *
+     * @return the id of the inserted or updated row
+     */
+    private long upsertRow(SQLiteDatabase db, ContentValues values, String[] keyFields) {
+        StringBuilder sql = buildInsertSql("INSERT INTO ", values);
+        sql.append(" ON CONFLICT (").append(TextUtils.join(",", keyFields)).append(") DO UPDATE SET ");
+
+        //With only key columns given the key is set to itself, so the statement still returns the row.
+        boolean first = true;
+        for (String column : values.keySet()) {
+            if (!Arrays.asList(keyFields).contains(column)) {
+                if (!first) {
+                    sql.append(',');
+                }
+                sql.append(column).append("=excluded.").append(column);
+                first = false;
+            }
+        }
+        if (first) {
+            sql.append(keyFields[0]).append("=excluded.").append(keyFields[0]);
+        }
+        sql.append(" RETURNING ").append(getBaseIdField());
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            bindValues(statement, values);
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * Inserts the row unless it conflicts with the one holding the same key.
+     *
+     * @return the id of the inserted row, or -1 if it was ignored
+     */
+    private long insertOrIgnore(SQLiteDatabase db, ContentValues values) {
+        SQLiteStatement statement = db.compileStatement(buildInsertSql("INSERT OR IGNORE INTO ", values).toString());
+        try {
+            bindValues(statement, values);
+            return statement.executeInsert();
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return the id of the row holding the key of the values, or 0 if there is none
+     */
+    private long lookupKeyRowId(SQLiteDatabase db, ContentValues values, String[] keyFields) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(getBaseIdField()).append(" FROM ").append(this.mTableName).append(" WHERE ");
+        for (int i = 0; i < keyFields.length; ++i) {
+            if (i > 0) {
+                sql.append(" AND ");
+            }
+            sql.append(keyFields[i]).append("=?");
+        }
+
+        SQLiteStatement statement = db.compileStatement(sql.toString());
+        try {
+            for (int i = 0; i < keyFields.length; ++i) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, values.get(keyFields[i]));
+            }
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return 0;
+        } finally {
+            statement.close();
+        }
+    }
+
+    private StringBuilder buildInsertSql(String insert, ContentValues values) {
+        Set<String> columns = values.keySet();
+        StringBuilder sql = new StringBuilder(insert).append(this.mTableName);
+        sql.append(" (").append(TextUtils.join(",", columns)).append(") VALUES (?");
+        for (int i = 1; i < columns.size(); ++i) {
+            sql.append(",?");
+        }
+        sql.append(')');
+
+        return sql;
+    }
+
+    /**
+     * Binds the values in the column order of {@link #buildInsertSql}, each with its own type.
+     */
+    private static void bindValues(SQLiteStatement statement, ContentValues values) {
+        int i = 0;
+        for (String column : values.keySet()) {
+            DatabaseUtils.bindObjectToProgram(statement, ++i, values.get(column));
+        }
+    }
+
+    /**
+     * Whether a unique index of the table covers exactly the key fields, which is what lets a conflicting insert
+     * stand in for the lookup. Read once from the schema.
+     */
+    private boolean hasUniqueKey(SQLiteDatabase db, String[] keyFields) {
+        Boolean hasUniqueKey = this.mHasUniqueKey;
+        if (hasUniqueKey == null) {
+            hasUniqueKey = false;
+
+            HashSet<String> keys = new HashSet<>(Arrays.asList(keyFields));
+            ArrayList<String> uniqueIndexes = new ArrayList<>();
+            Cursor cursor = db.rawQuery("PRAGMA index_list(" + this.mTableName + ");", null);
+            try {
+                int nameIndex = cursor.getColumnIndexOrThrow("name");
+                int uniqueIndex = cursor.getColumnIndexOrThrow("unique");
+                int partialIndex = cursor.getColumnIndex("partial");
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(uniqueIndex) != 0 && (partialIndex < 0 || cursor.getInt(partialIndex) == 0)) {
+                        uniqueIndexes.add(cursor.getString(nameIndex));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (String index : uniqueIndexes) {
+                HashSet<String> columns = new HashSet<>();
+                cursor = db.rawQuery("PRAGMA index_info(" + index + ");", null);
+                try {
+                    int nameIndex = cursor.getColumnIndexOrThrow("name");
+                    while (cursor.moveToNext()) {
+                        columns.add(cursor.getString(nameIndex));
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                if (columns.equals(keys)) {
+                    hasUniqueKey = true;
+                    break;
+                }
+            }
+
+            this.mHasUniqueKey = hasUniqueKey;
+        }
+
+        return hasUniqueKey;
+    }
+
+    /**
+     * ON CONFLICT DO UPDATE arrived in SQLite 3.24, but only 3.35 can return the id of the row it touched.
+     */
+    private static boolean supportsUpsertReturning(SQLiteDatabase db) {
+        Boolean supported = sSupportsUpsertReturning;
+        if (supported == null) {
+            String[] version = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version();", null).split("\\.");
+            int major = Integer.parseInt(version[0]);
+            int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+            supported = major > 3 || (major == 3 && minor >= 35);
+            sSupportsUpsertReturning = supported;
+        }
+
+        return supported;
+    }
+
     @Override
     public int handleDelete(ProviderContext providerContext, String selection, String[] selectionArgs) {
         return providerContext.db.delete(this.mTableName, selection, selectionArgs);
@@ -0,0 +1,172 @@
+package net.gierach.githubsummary.protocol;
+
+import net.gierach.githubsummary.model.LanguageData;
+import net.gierach.githubsummary.model.RepoData;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 26)
+public class GitHubProtocolGraphQLTest {
+
+    private static final String FIRST_PAGE = "{\"data\":{\"viewer\":{\"repositories\":{" +
+            "\"pageInfo\":{\"hasNextPage\":true,\"endCursor\":\"Y3Vyc29yOjI=\"}," +
+            "\"nodes\":[" +
+            "{\"databaseId\":101,\"name\":\"alpha\",\"description\":null,\"isPrivate\":false," +
+            "\"stargazers\":{\"totalCount\":3},\"owner\":{\"__typename\":\"User\",\"login\":\"octocat\"}," +
+            "\"languages\":{\"edges\":[{\"size\":5000000000,\"node\":{\"name\":\"Java\"}},{\"size\":120,\"node\":{\"name\":\"Shell\"}}]}}," +
+            "{\"databaseId\":102,\"name\":\"beta\",\"description\":\"docs\",\"isPrivate\":true," +
+            "\"stargazers\":{\"totalCount\":0},\"owner\":{\"__typename\":\"Organization\",\"login\":\"acme\"}," +
+            "\"languages\":{\"edges\":[]}}" +
+            "]}}}}";
+
+    private static final String LAST_PAGE = "{\"data\":{\"viewer\":{\"repositories\":{" +
+            "\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":\"Y3Vyc29yOjM=\"}," +
+            "\"nodes\":[]}}}}";
+
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new MockWebServer();
+        mServer.start();
+        GitHubProtocol.setApiHost(mServer.url("/").toString().replaceAll("/$", ""));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        GitHubProtocol.setApiHost(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void graphQLPageMapsReposAndLanguages() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(FIRST_PAGE));
+
+        List<RepoData> list = new ArrayList<>();
+        String cursor = GitHubProtocol.getUserReposGraphQL(null, list, "octocat", "secret");
+
+        assertEquals("Y3Vyc29yOjI=", cursor);
+        assertEquals(2, list.size());
+
+        RepoData alpha = list.get(0);
+        assertEquals("101", alpha.serverId);
+        assertEquals("alpha", alpha.name);
+        assertNull(alpha.description);
+        assertEquals("octocat", alpha.owner);
+        assertEquals("User", alpha.ownerType);
+        assertEquals(3, alpha.stargazerCount);
+        assertEquals(GitHubProtocol.getApiHost() + "/repos/octocat/alpha/languages", alpha.languagesUrl);
+        assertEquals(2, alpha.languages.size());
+        LanguageData java = alpha.languages.get(0);
+        assertEquals("Java", java.language);
+        assertEquals(5000000000L, java.byteCount);
+
+        RepoData beta = list.get(1);
+        assertTrue(beta.isPrivate);
+        assertEquals("Organization", beta.ownerType);
+        assertEquals(1, beta.languages.size());
+        assertEquals("None", beta.languages.get(0).language);
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("/graphql", request.getPath());
+        assertNotNull(request.getHeader("Authorization"));
+        JSONObject body = new JSONObject(request.getBody().readUtf8());
+        assertTrue(body.getString("query").contains("languages("));
+        assertTrue(body.getJSONObject("variables").isNull("after"));
+    }
+
+    @Test
+    public void graphQLLastPageReturnsNullCursorAndSendsAfter() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(LAST_PAGE));
+
+        List<RepoData> list = new ArrayList<>();
+        String cursor = GitHubProtocol.getUserReposGraphQL("Y3Vyc29yOjI=", list, "octocat", "secret");
+
+        assertNull(cursor);
+        assertTrue(list.isEmpty());
+        JSONObject body = new JSONObject(mServer.takeRequest().getBody().readUtf8());
+        assertEquals("Y3Vyc29yOjI=", body.getJSONObject("variables").getString("after"));
+    }
+
+    @Test
+    public void graphQLRepoWithMoreLanguagesHasNoLanguageList() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"data\":{\"viewer\":{\"repositories\":{" +
+                "\"pageInfo\":{\"hasNextPage\":false,\"endCursor\":null}," +
+                "\"nodes\":[{\"databaseId\":103,\"name\":\"polyglot\",\"owner\":{\"__typename\":\"User\",\"login\":\"octocat\"}," +
+                "\"languages\":{\"pageInfo\":{\"hasNextPage\":true},\"edges\":[{\"size\":100,\"node\":{\"name\":\"Java\"}}]}}" +
+                "]}}}}"));
+
+        List<RepoData> list = new ArrayList<>();
+        GitHubProtocol.getUserReposGraphQL(null, list, "octocat", "secret");
+
+        //Only part of the languages would replace the stored list, they are fetched from languagesUrl instead.
+        assertEquals(1, list.size());
+        assertNull(list.get(0).languages);
+        assertEquals(GitHubProtocol.getApiHost() + "/repos/octocat/polyglot/languages", list.get(0).languagesUrl);
+        JSONObject body = new JSONObject(mServer.takeRequest().getBody().readUtf8());
+        assertTrue(body.getString("query").contains("pageInfo{hasNextPage} edges"));
+    }
+
+    @Test(expected = IOException.class)
+    public void graphQLErrorsWithoutDataThrow() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("{\"data\":null,\"errors\":[{\"message\":\"Bad credentials\"}]}"));
+
+        GitHubProtocol.getUserReposGraphQL(null, new ArrayList<RepoData>(), "octocat", "secret");
+    }
+
+    @Test
+    public void graphQLNeedsOneRequestWhereRestNeedsOnePerRepo() throws Exception {
+        String restRepos = "[" +
+                "{\"id\":101,\"name\":\"alpha\",\"description\":null,\"private\":false,\"stargazers_count\":3," +
+                "\"languages_url\":\"" + GitHubProtocol.getApiHost() + "/repos/octocat/alpha/languages\"," +
+                "\"owner\":{\"login\":\"octocat\",\"type\":\"User\",\"site_admin\":false}," +
+                "\"permissions\":{\"admin\":true,\"push\":true,\"pull\":true},\"license\":null}," +
+                "{\"id\":102,\"name\":\"beta\",\"description\":\"docs\",\"private\":true,\"stargazers_count\":0," +
+                "\"languages_url\":\"" + GitHubProtocol.getApiHost() + "/repos/acme/beta/languages\"," +
+                "\"owner\":{\"login\":\"acme\",\"type\":\"Organization\"}}]";
+        mServer.enqueue(new MockResponse().setBody(restRepos));
+        mServer.enqueue(new MockResponse().setBody("{\"Java\":5000000000,\"Shell\":120}"));
+        mServer.enqueue(new MockResponse().setBody("{}"));
+
+        long restStart = System.nanoTime();
+        List<RepoData> restList = new ArrayList<>();
+        assertNull(GitHubProtocol.getUserRepos(new ConditionalRequest(GitHubProtocol.getUserReposUrl()), restList, "octocat", "secret"));
+        for (RepoData repoData : restList) {
+            assertNotNull(GitHubProtocol.getRepoLanguages(new ConditionalRequest(repoData.languagesUrl), "octocat", "secret"));
+        }
+        long restNanos = System.nanoTime() - restStart;
+        int restRequests = mServer.getRequestCount();
+
+        mServer.enqueue(new MockResponse().setBody(FIRST_PAGE.replace("\"hasNextPage\":true", "\"hasNextPage\":false")));
+
+        long graphQLStart = System.nanoTime();
+        List<RepoData> graphQLList = new ArrayList<>();
+        assertNull(GitHubProtocol.getUserReposGraphQL(null, graphQLList, "octocat", "secret"));
+        long graphQLNanos = System.nanoTime() - graphQLStart;
+        int graphQLRequests = mServer.getRequestCount() - restRequests;
+
+        assertEquals(1 + restList.size(), restRequests);
+        assertEquals(1, graphQLRequests);
+        assertEquals(restList.size(), graphQLList.size());
+        System.out.println("REST: " + restRequests + " request(s) in " + restNanos / 1000 + "us, GraphQL: " +
+                graphQLRequests + " request(s) in " + graphQLNanos / 1000 + "us");
+    }
+}
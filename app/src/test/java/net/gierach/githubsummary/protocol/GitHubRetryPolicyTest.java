@@ -0,0 +1,127 @@
+package net.gierach.githubsummary.protocol;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 26)
+public class GitHubRetryPolicyTest {
+
+    private static final String HOST = "api.github.com";
+
+    private final GitHubRetryPolicy mPolicy = GitHubRetryPolicy.getInstance();
+
+    @After
+    public void tearDown() {
+        mPolicy.resetCircuits();
+    }
+
+    @Test
+    public void shortRetryAfterIsRetried() {
+        Response response = response(403).header("Retry-After", "5").build();
+
+        assertTrue(mPolicy.canRetry(response, false));
+        assertEquals(TimeUnit.SECONDS.toMillis(5), mPolicy.getRetryDelayMs(1, response));
+    }
+
+    @Test
+    public void longRetryAfterIsRateLimitUntilItElapses() {
+        Response response = response(403).header("Retry-After", "120").build();
+        long now = System.currentTimeMillis();
+
+        assertEquals(-1, mPolicy.getRetryDelayMs(1, response));
+        long resetTimeMillis = mPolicy.getRateLimitResetTimeMillis(response);
+        assertTrue(resetTimeMillis >= now + TimeUnit.SECONDS.toMillis(120));
+        assertTrue(resetTimeMillis <= System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(120));
+    }
+
+    @Test
+    public void exhaustedBudgetIsRateLimitUntilReset() {
+        long resetSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 600;
+        Response response = response(403)
+                .header("X-RateLimit-Remaining", "0")
+                .header("X-RateLimit-Reset", Long.toString(resetSeconds))
+                .build();
+
+        assertFalse(mPolicy.canRetry(response, true));
+        assertEquals(TimeUnit.SECONDS.toMillis(resetSeconds), mPolicy.getRateLimitResetTimeMillis(response));
+    }
+
+    @Test
+    public void tooManyRequestsIsAlwaysRateLimit() {
+        assertTrue(mPolicy.getRateLimitResetTimeMillis(response(429).build()) > System.currentTimeMillis());
+    }
+
+    @Test
+    public void forbiddenWithoutRateLimitHeadersIsFinal() {
+        Response response = response(403).header("X-RateLimit-Remaining", "4999").build();
+
+        assertFalse(mPolicy.canRetry(response, true));
+        assertEquals(-1, mPolicy.getRateLimitResetTimeMillis(response));
+        assertEquals(-1, mPolicy.getRateLimitResetTimeMillis(response(401).build()));
+    }
+
+    @Test
+    public void circuitOpensAfterRepeatedFailuresUntilReset() throws Exception {
+        for (int i = 0; i < 5; ++i) {
+            mPolicy.checkCircuit(HOST);
+            mPolicy.onFailure(HOST);
+        }
+
+        try {
+            mPolicy.checkCircuit(HOST);
+            fail("circuit should be open");
+        } catch (IOException e) {
+            //expected
+        }
+
+        mPolicy.resetCircuits();
+        mPolicy.checkCircuit(HOST);
+    }
+
+    @Test
+    public void retryWaitEndsWhenCancelled() throws Exception {
+        final CancellationToken cancellationToken = new CancellationToken();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cancellationToken.cancel();
+            }
+        }).start();
+
+        long start = System.currentTimeMillis();
+        try {
+            mPolicy.sleep(TimeUnit.SECONDS.toMillis(60), cancellationToken);
+            fail("wait should have been cancelled");
+        } catch (InterruptedIOException e) {
+            //expected
+        }
+        assertTrue(System.currentTimeMillis() - start < TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private static Response.Builder response(int code) {
+        return new Response.Builder()
+                .request(new Request.Builder().url("https://" + HOST + "/user/repos").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("status " + code);
+    }
+}
@@ -0,0 +1,163 @@
+package net.gierach.githubsummary.protocol;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 26)
+public class SingleFlightTest {
+
+    private static final String KEY = "https://api.github.com/user/repos";
+
+    private final SingleFlight mSingleFlight = new SingleFlight();
+    private final AtomicInteger mFetchCount = new AtomicInteger();
+    private final CountDownLatch mFetchStarted = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+    private volatile CancellationToken mFlightToken;
+
+    /**
+     * Waits for the release unless the flight is cancelled first.
+     */
+    private final SingleFlight.Fetcher<String> mFetcher = new SingleFlight.Fetcher<String>() {
+        @Override
+        public String fetch(CancellationToken cancellationToken) throws IOException {
+            mFetchCount.incrementAndGet();
+            mFlightToken = cancellationToken;
+            mFetchStarted.countDown();
+            try {
+                while (!mRelease.await(10, TimeUnit.MILLISECONDS)) {
+                    cancellationToken.throwIfCancelled();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return "result";
+        }
+    };
+
+    @Test
+    public void concurrentCallersShareOneFetch() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> leader = executor.submit(call(new CancellationToken()));
+            assertTrue(mFetchStarted.await(5, TimeUnit.SECONDS));
+            Future<String> follower1 = executor.submit(call(new CancellationToken()));
+            Future<String> follower2 = executor.submit(call(null));
+            Thread.sleep(100);
+
+            mRelease.countDown();
+
+            assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("result", follower1.get(5, TimeUnit.SECONDS));
+            assertEquals("result", follower2.get(5, TimeUnit.SECONDS));
+            assertEquals(1, mFetchCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelledLeaderKeepsFetchingForFollowers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CancellationToken leaderToken = new CancellationToken();
+            Future<String> leader = executor.submit(call(leaderToken));
+            assertTrue(mFetchStarted.await(5, TimeUnit.SECONDS));
+            CancellationToken followerToken = new CancellationToken();
+            Future<String> follower = executor.submit(call(followerToken));
+            Thread.sleep(100);
+
+            leaderToken.cancel();
+            assertFalse(mFlightToken.isCancelled());
+            mRelease.countDown();
+
+            assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+            assertCancelled(leader);
+            assertEquals(1, mFetchCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void cancelledFollowerStopsWaitingAlone() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(call(new CancellationToken()));
+            assertTrue(mFetchStarted.await(5, TimeUnit.SECONDS));
+            CancellationToken followerToken = new CancellationToken();
+            Future<String> follower = executor.submit(call(followerToken));
+            Thread.sleep(100);
+
+            followerToken.cancel();
+            assertCancelled(follower);
+            assertFalse(mFlightToken.isCancelled());
+
+            mRelease.countDown();
+            assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void flightIsCancelledOnceEveryCallerCancelled() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CancellationToken leaderToken = new CancellationToken();
+            Future<String> leader = executor.submit(call(leaderToken));
+            assertTrue(mFetchStarted.await(5, TimeUnit.SECONDS));
+            CancellationToken followerToken = new CancellationToken();
+            Future<String> follower = executor.submit(call(followerToken));
+            Thread.sleep(100);
+
+            followerToken.cancel();
+            assertFalse(mFlightToken.isCancelled());
+            leaderToken.cancel();
+
+            assertCancelled(leader);
+            assertCancelled(follower);
+            assertTrue(mFlightToken.isCancelled());
+
+            //The cancelled flight is not joined by a later caller.
+            mRelease.countDown();
+            assertEquals("result", mSingleFlight.execute(KEY, null, mFetcher));
+            assertEquals(2, mFetchCount.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Callable<String> call(final CancellationToken cancellationToken) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return mSingleFlight.execute(KEY, cancellationToken, mFetcher);
+            }
+        };
+    }
+
+    private static void assertCancelled(Future<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("call should have been cancelled");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedIOException);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package net.gierach.githubsummary.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import net.gierach.githubsummary.testing.PlatformSQLiteConnection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 26, shadows = PlatformSQLiteConnection.class)
+public class ReposProviderTest {
+
+    private static final Uri LANGUAGE_REPO_MAP_INSERT_URI = ReposContract.makeInsertOrUpdateUri(ReposContract.LanguageRepoMap.CONTENT_URI);
+
+    private ContentResolver mContentResolver;
+
+    @Before
+    public void setUp() {
+        Robolectric.setupContentProvider(ReposProvider.class, ReposContract.AUTHORITY);
+        mContentResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    @Test
+    public void insertOrUpdateInsertsRowWithNewKey() {
+        long javaId = insertLanguage(1, 2, 100);
+        long shellId = insertLanguage(1, 3, 50);
+
+        assertTrue(javaId > 0);
+        assertTrue(shellId > javaId);
+        assertEquals(2, countLanguages(1));
+    }
+
+    @Test
+    public void insertOrUpdateUpdatesRowWithExistingKey() {
+        long javaId = insertLanguage(1, 2, 100);
+        //The ignored insert must not report the id of the row inserted last.
+        insertLanguage(1, 3, 50);
+
+        assertEquals(javaId, insertLanguage(1, 2, 200));
+        assertEquals(2, countLanguages(1));
+        assertEquals(200, getLanguageBytes(javaId));
+    }
+
+    @Test
+    public void insertOrUpdateKeepsOneRowPerKey() {
+        Uri insertUri = ReposContract.makeInsertOrUpdateUri(ReposContract.Etags.CONTENT_URI);
+        ContentValues values = new ContentValues();
+        values.put(ReposContract.EtagColumns.USER_ID, 1L);
+        values.put(ReposContract.EtagColumns.URL, "https://api.github.com/user/repos");
+        values.put(ReposContract.EtagColumns.ETAG, "first");
+        long firstId = ContentUris.parseId(mContentResolver.insert(insertUri, values));
+        values.put(ReposContract.EtagColumns.ETAG, "second");
+        long secondId = ContentUris.parseId(mContentResolver.insert(insertUri, values));
+        values.put(ReposContract.EtagColumns.URL, "https://api.github.com/user/repos?page=2");
+        long otherId = ContentUris.parseId(mContentResolver.insert(insertUri, values));
+
+        assertEquals(firstId, secondId);
+        assertNotEquals(firstId, otherId);
+        Cursor cursor = mContentResolver.query(ReposContract.Etags.CONTENT_URI, new String[]{ReposContract.EtagColumns.ETAG},
+                ReposContract.EtagColumns._ID + "=?", new String[]{Long.toString(firstId)}, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("second", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion6RemovesRepeatedLanguagesBeforeAddingTheKey() {
+        //Creates the current schema, then turns it back into version 6, which let a language repeat for a repo.
+        assertEquals(0, countLanguages(1));
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(RuntimeEnvironment.application.getDatabasePath("repos.db").getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        long firstJavaId;
+        try {
+            db.execSQL("DROP INDEX language_repo_map_key_idx;");
+            db.execSQL("CREATE INDEX language_repo_map_repo_id_idx ON " + ReposContract.LanguageRepoMap.TABLE_NAME + " (" +
+                    ReposContract.LanguageRepoMapColumns.REPO_ID + ");");
+            firstJavaId = db.insert(ReposContract.LanguageRepoMap.TABLE_NAME, null, buildLanguageValues(1, 2, 100));
+            db.insert(ReposContract.LanguageRepoMap.TABLE_NAME, null, buildLanguageValues(1, 2, 200));
+            db.insert(ReposContract.LanguageRepoMap.TABLE_NAME, null, buildLanguageValues(1, 3, 50));
+            db.setVersion(6);
+        } finally {
+            db.close();
+        }
+
+        Robolectric.setupContentProvider(ReposProvider.class, ReposContract.AUTHORITY);
+
+        assertEquals(2, countLanguages(1));
+        assertEquals(100, getLanguageBytes(firstJavaId));
+        assertEquals(firstJavaId, insertLanguage(1, 2, 300));
+        assertEquals(2, countLanguages(1));
+    }
+
+    private long insertLanguage(long repoId, long languageId, long bytes) {
+        return ContentUris.parseId(mContentResolver.insert(LANGUAGE_REPO_MAP_INSERT_URI, buildLanguageValues(repoId, languageId, bytes)));
+    }
+
+    private static ContentValues buildLanguageValues(long repoId, long languageId, long bytes) {
+        ContentValues values = new ContentValues();
+        values.put(ReposContract.LanguageRepoMapColumns.REPO_ID, repoId);
+        values.put(ReposContract.LanguageRepoMapColumns.LANGUAGE_ID, languageId);
+        values.put(ReposContract.LanguageRepoMapColumns.LANG_BYTES, bytes);
+
+        return values;
+    }
+
+    private int countLanguages(long repoId) {
+        Cursor cursor = mContentResolver.query(ReposContract.LanguageRepoMap.CONTENT_URI, new String[]{ReposContract.LanguageRepoMapColumns._ID},
+                ReposContract.LanguageRepoMapColumns.REPO_ID + "=?", new String[]{Long.toString(repoId)}, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getLanguageBytes(long id) {
+        Cursor cursor = mContentResolver.query(ContentUris.withAppendedId(ReposContract.LanguageRepoMap.CONTENT_URI, id),
+                new String[]{ReposContract.LanguageRepoMapColumns.LANG_BYTES}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package net.gierach.githubsummary.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class FetchPipelineTest {
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void takesItemsUntilEveryProducerEnds() throws Exception {
+        FetchPipeline<String> pipeline = new FetchPipeline<>(mExecutor, 1);
+        pipeline.submit(producerOf("a"));
+        pipeline.submit(producerOf("b"));
+
+        String first = pipeline.take();
+        String second = pipeline.take();
+
+        assertTrue(("a".equals(first) && "b".equals(second)) || ("b".equals(first) && "a".equals(second)));
+        assertNull(pipeline.take());
+    }
+
+    @Test(timeout = 5000)
+    public void producerFailureIsRethrown() throws Exception {
+        FetchPipeline<String> pipeline = new FetchPipeline<>(mExecutor, 1);
+        pipeline.submit(new FetchPipeline.Producer<String>() {
+            @Override
+            public void produce(FetchPipeline<String> pipeline) throws IOException {
+                throw new IOException("offline");
+            }
+        });
+
+        try {
+            pipeline.take();
+            fail();
+        } catch (IOException e) {
+            assertEquals("offline", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void producerErrorDoesNotBlockTake() throws Exception {
+        FetchPipeline<String> pipeline = new FetchPipeline<>(mExecutor, 1);
+        pipeline.submit(new FetchPipeline.Producer<String>() {
+            @Override
+            public void produce(FetchPipeline<String> pipeline) {
+                throw new OutOfMemoryError("parsing");
+            }
+        });
+
+        try {
+            pipeline.take();
+            fail();
+        } catch (OutOfMemoryError e) {
+            assertEquals("parsing", e.getMessage());
+        }
+    }
+
+    private static FetchPipeline.Producer<String> producerOf(final String item) {
+        return new FetchPipeline.Producer<String>() {
+            @Override
+            public void produce(FetchPipeline<String> pipeline) throws InterruptedException {
+                pipeline.put(item);
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package net.gierach.githubsummary.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PriorityFetchQueueTest {
+
+    private static final long[] NO_PRIORITY = new long[0];
+
+    @Test
+    public void pollsInInsertionOrder() {
+        PriorityFetchQueue<String> queue = queueOf(3, 1, 2);
+
+        assertEquals("3", queue.poll(NO_PRIORITY));
+        assertEquals("1", queue.poll(NO_PRIORITY));
+        assertEquals("2", queue.poll(NO_PRIORITY));
+        assertNull(queue.poll(NO_PRIORITY));
+    }
+
+    @Test
+    public void priorityKeysGoFirstInTheirOrder() {
+        PriorityFetchQueue<String> queue = queueOf(1, 2, 3, 4);
+        long[] priorityKeys = {4, 9, 2};
+
+        assertEquals("4", queue.poll(priorityKeys));
+        assertEquals("2", queue.poll(priorityKeys));
+        assertEquals("1", queue.poll(priorityKeys));
+        assertEquals("3", queue.poll(priorityKeys));
+    }
+
+    @Test
+    public void priorityCanChangeBetweenPolls() {
+        PriorityFetchQueue<String> queue = queueOf(1, 2, 3);
+
+        assertEquals("3", queue.poll(new long[]{3}));
+        assertTrue(queue.containsAny(new long[]{2, 3}));
+        assertFalse(queue.containsAny(new long[]{3, 4}));
+        assertEquals("2", queue.poll(new long[]{2}));
+        assertEquals("1", queue.poll(NO_PRIORITY));
+        assertFalse(queue.containsAny(new long[]{1}));
+    }
+
+    private static PriorityFetchQueue<String> queueOf(long... keys) {
+        PriorityFetchQueue<String> queue = new PriorityFetchQueue<>();
+        for (long key : keys) {
+            queue.add(key, Long.toString(key));
+        }
+
+        return queue;
+    }
+}
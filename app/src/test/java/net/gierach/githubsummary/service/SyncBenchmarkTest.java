@@ -0,0 +1,303 @@
+package net.gierach.githubsummary.service;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+
+import net.gierach.githubsummary.model.SecurityHelper;
+import net.gierach.githubsummary.model.UserAccount;
+import net.gierach.githubsummary.model.UserAccountDao;
+import net.gierach.githubsummary.protocol.GitHubRetryPolicy;
+import net.gierach.githubsummary.provider.ReposContract;
+import net.gierach.githubsummary.testing.CountingReposProvider;
+import net.gierach.githubsummary.testing.FakeGitHubServer;
+import net.gierach.githubsummary.testing.PlatformSQLiteConnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the sync of {@link RepoFetchService} end to end against {@link FakeGitHubServer} and reports wall time,
+ * request count, provider writes, time spent in write batches and allocations. Allocations are summed over the
+ * threads still alive when the sync ends, which includes the engine's sync thread but not the short lived fetch
+ * workers. The assertions pin the request and write counts so regressions show up as failures; the timings are
+ * only printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 26, shadows = PlatformSQLiteConnection.class)
+public class SyncBenchmarkTest {
+
+    private static final String PASSWORD = "secret";
+
+    private FakeGitHubServer mServer;
+    private CountingReposProvider mProvider;
+    private RepoFetchService mService;
+    private int mStartId = 0;
+
+    @Before
+    public void setUp() {
+        mServer = new FakeGitHubServer();
+        mProvider = Robolectric.setupContentProvider(CountingReposProvider.class, ReposContract.AUTHORITY);
+        mService = Robolectric.setupService(RepoFetchService.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        mService.getSyncEngine().shutdown();
+        resetSingleton(SyncEngine.class);
+        resetSingleton(UserAccountDao.class);
+        resetSingleton(SecurityHelper.class);
+        resetSingleton(LanguageDictionary.class);
+        GitHubRetryPolicy.getInstance().resetCircuits();
+    }
+
+    @Test
+    public void initialSyncFetchesEveryPageAndLanguage() throws Exception {
+        mServer.setRepoCount(300).start();
+        UserAccount userAccount = addAccount("initial");
+
+        runSync("initial sync", userAccount);
+
+        assertEquals(3, mServer.getRepoPageRequestCount());
+        assertEquals(300, mServer.getLanguageRequestCount());
+        assertEquals(300, countRows(userAccount, ReposContract.RepoColumns.USER_ID + "=?"));
+        assertEquals(0, countRows(userAccount, ReposContract.RepoColumns.USER_ID + "=? AND " + ReposContract.RepoColumns.NEED_LANG_SYNC + "=1"));
+        //One batch per page plus chunked language results, not one batch per repo.
+        assertTrue(mProvider.getWriteBatchCount() <= 3 + 30);
+    }
+
+    @Test
+    public void unchangedResyncOnlyRevalidatesPages() throws Exception {
+        mServer.setRepoCount(300).start();
+        UserAccount userAccount = addAccount("unchanged");
+        runSync("warm up", userAccount);
+
+        runSync("unchanged resync", userAccount);
+
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(3, mServer.getNotModifiedCount());
+        assertEquals(0, mProvider.getWriteCount());
+    }
+
+    @Test
+    public void pushToOneRepoRefetchesOnlyItsLanguages() throws Exception {
+        mServer.setRepoCount(300).start();
+        UserAccount userAccount = addAccount("pushed");
+        runSync("warm up", userAccount);
+
+        mServer.pushToRepo(150);
+        runSync("one repo pushed", userAccount);
+
+        assertEquals(3, mServer.getRepoPageRequestCount());
+        assertEquals(2, mServer.getNotModifiedCount());
+        assertEquals(1, mServer.getLanguageRequestCount());
+        //Only the pushed repo, its language map and the two changed validators are written.
+        assertTrue(mProvider.getWriteCount() < 10);
+    }
+
+    @Test
+    public void interruptedSyncResumesAfterLastWrittenPage() throws Exception {
+        mServer.setRepoCount(300).setFailingRepoPage(3).start();
+        UserAccount userAccount = addAccount("interrupted");
+        runSync("interrupted sync", userAccount);
+        assertEquals(200, countRows(userAccount, ReposContract.RepoColumns.USER_ID + "=?"));
+
+        mServer.setFailingRepoPage(0);
+        runSync("resumed sync", userAccount);
+
+        assertEquals(1, mServer.getRepoPageRequestCount());
+        assertEquals(300, mServer.getLanguageRequestCount());
+        assertEquals(300, countRows(userAccount, ReposContract.RepoColumns.USER_ID + "=?"));
+
+        //The checkpoint is gone, so the next sync revalidates every page again.
+        runSync("after resume", userAccount);
+        assertEquals(3, mServer.getNotModifiedCount());
+        assertEquals(0, mProvider.getWriteCount());
+    }
+
+    @Test
+    public void initialSyncWithLatency() throws Exception {
+        mServer.setRepoCount(100).setMaxPageSize(30).setLatency(20, TimeUnit.MILLISECONDS).start();
+        UserAccount userAccount = addAccount("latency");
+
+        runSync("initial sync, 20ms latency", userAccount);
+
+        assertEquals(4, mServer.getRepoPageRequestCount());
+        assertEquals(100, mServer.getLanguageRequestCount());
+    }
+
+    @Test
+    public void lowRateLimitDefersLanguagesWithoutInvalidatingAccount() throws Exception {
+        mServer.setRepoCount(50).setRateLimit(5000, 60).start();
+        UserAccount userAccount = addAccount("ratelimited");
+
+        runSync("rate limited sync", userAccount);
+
+        assertEquals(0, mServer.getLanguageRequestCount());
+        assertEquals(50, countRows(userAccount, ReposContract.RepoColumns.USER_ID + "=? AND " + ReposContract.RepoColumns.NEED_LANG_SYNC + "=1"));
+        assertTrue(UserAccountDao.getInstance(RuntimeEnvironment.application).getAccountByUsername(userAccount.getUsername()).isValidated());
+        JobInfo resumeJob = getResumeJob(userAccount);
+        assertNotNull(resumeJob);
+        assertTrue(resumeJob.getMinLatencyMillis() > 0);
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, resumeJob.getNetworkType());
+    }
+
+    @Test
+    public void longRetryAfterDefersSyncWithoutInvalidatingAccount() throws Exception {
+        mServer.setRepoCount(50).setRetryAfter(120).start();
+        UserAccount userAccount = addAccount("retryafter");
+
+        runSync("long retry after", userAccount);
+
+        assertEquals(1, mServer.getRepoPageRequestCount());
+        assertTrue(UserAccountDao.getInstance(RuntimeEnvironment.application).getAccountByUsername(userAccount.getUsername()).isValidated());
+        JobInfo resumeJob = getResumeJob(userAccount);
+        assertNotNull(resumeJob);
+        assertTrue(resumeJob.getMinLatencyMillis() > TimeUnit.SECONDS.toMillis(110));
+    }
+
+    @Test
+    public void unavailableRepoDoesNotEndLanguageSync() throws Exception {
+        mServer.setRepoCount(50).setUnavailableRepo(0).start();
+        UserAccount userAccount = addAccount("unavailable");
+
+        runSync("one repo unavailable", userAccount);
+
+        assertEquals(50, mServer.getLanguageRequestCount());
+        assertEquals(0, countRows(userAccount, ReposContract.RepoColumns.USER_ID + "=? AND " + ReposContract.RepoColumns.NEED_LANG_SYNC + "=1"));
+        assertTrue(UserAccountDao.getInstance(RuntimeEnvironment.application).getAccountByUsername(userAccount.getUsername()).isValidated());
+
+        //The failed repo waits for its languages to go stale like the others.
+        runSync("unchanged resync", userAccount);
+        assertEquals(0, mServer.getLanguageRequestCount());
+    }
+
+    @Test
+    public void burstOfSyncRequestsIsCoalesced() throws Exception {
+        mServer.setRepoCount(100).setLatency(5, TimeUnit.MILLISECONDS).start();
+        UserAccount userAccount = addAccount("burst");
+
+        mServer.resetCounts();
+        for (int i = 0; i < 5; ++i) {
+            RepoFetchService.syncUserRepos(RuntimeEnvironment.application, userAccount,
+                    i == 4 ? RepoFetchService.SYNC_PRIORITY_USER : RepoFetchService.SYNC_PRIORITY_AUTO);
+            mService.onStartCommand(ShadowApplication.getInstance().getNextStartedService(), 0, ++mStartId);
+        }
+        assertTrue(mService.getSyncEngine().awaitIdle(2, TimeUnit.MINUTES));
+
+        //One full sync plus at most one follow-up that only revalidates the page.
+        assertTrue(mServer.getRepoPageRequestCount() <= 2);
+        assertEquals(100, mServer.getLanguageRequestCount());
+    }
+
+    @Test
+    public void removingAccountCancelsItsRunningSync() throws Exception {
+        mServer.setRepoCount(300).setLatency(20, TimeUnit.MILLISECONDS).start();
+        UserAccount userAccount = addAccount("removed");
+
+        mServer.resetCounts();
+        RepoFetchService.syncUserRepos(RuntimeEnvironment.application, userAccount, RepoFetchService.SYNC_PRIORITY_USER);
+        mService.onStartCommand(ShadowApplication.getInstance().getNextStartedService(), 0, ++mStartId);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (mServer.getLanguageRequestCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+
+        UserAccountDao.getInstance(RuntimeEnvironment.application).removeAccount(userAccount);
+        int requestsAtRemoval = mServer.getRequestCount();
+        assertTrue(mService.getSyncEngine().awaitIdle(10, TimeUnit.SECONDS));
+
+        //At most the requests that were in flight complete, none are started afterwards.
+        assertTrue(mServer.getRequestCount() - requestsAtRemoval <= 6);
+        assertTrue(mServer.getLanguageRequestCount() < 300);
+    }
+
+    private UserAccount addAccount(String username) {
+        Context context = RuntimeEnvironment.application;
+        ContentValues values = new ContentValues();
+        values.put(ReposContract.UserAccountColumns.USERNAME, username);
+        values.put(ReposContract.UserAccountColumns.PASSWORD_ENC, SecurityHelper.getInstance(context).encryptPassword(username, PASSWORD));
+        values.put(ReposContract.UserAccountColumns.LAST_USED, System.currentTimeMillis());
+        values.put(ReposContract.UserAccountColumns.IS_VALIDATED, 1);
+        context.getContentResolver().insert(ReposContract.UserAccounts.CONTENT_URI, values);
+
+        UserAccount userAccount = UserAccountDao.getInstance(context).getAccountByUsername(username);
+        assertNotNull(userAccount);
+        return userAccount;
+    }
+
+    private void runSync(String label, UserAccount userAccount) throws InterruptedException {
+        RepoFetchService.syncUserRepos(RuntimeEnvironment.application, userAccount);
+        Intent intent = ShadowApplication.getInstance().getNextStartedService();
+        assertNotNull(intent);
+
+        mServer.resetCounts();
+        mProvider.resetCounts();
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        HashMap<Long, Long> allocatedBefore = new HashMap<>();
+        for (long threadId : threadMXBean.getAllThreadIds()) {
+            allocatedBefore.put(threadId, threadMXBean.getThreadAllocatedBytes(threadId));
+        }
+        long start = System.nanoTime();
+
+        mService.onStartCommand(intent, 0, ++mStartId);
+        assertTrue(mService.getSyncEngine().awaitIdle(2, TimeUnit.MINUTES));
+
+        long wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long allocated = 0;
+        for (long threadId : threadMXBean.getAllThreadIds()) {
+            Long before = allocatedBefore.get(threadId);
+            allocated += Math.max(0, threadMXBean.getThreadAllocatedBytes(threadId) - (before != null ? before : 0));
+        }
+        long allocatedKb = allocated / 1024;
+        System.out.println(String.format("SyncBenchmark %-28s wall=%5dms requests=%4d (304=%d) dbWrites=%5d batches=%4d (%dms) alloc=%dKB",
+                label, wallMs, mServer.getRequestCount(), mServer.getNotModifiedCount(),
+                mProvider.getWriteCount(), mProvider.getWriteBatchCount(), mProvider.getWriteBatchMillis(), allocatedKb));
+    }
+
+    private int countRows(UserAccount userAccount, String selection) {
+        Cursor cursor = RuntimeEnvironment.application.getContentResolver().query(ReposContract.Repos.CONTENT_URI,
+                new String[]{ReposContract.RepoColumns._ID}, selection, new String[]{userAccount.getRecordId().toString()}, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static JobInfo getResumeJob(UserAccount userAccount) {
+        JobScheduler jobScheduler = (JobScheduler) RuntimeEnvironment.application.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo jobInfo : jobScheduler.getAllPendingJobs()) {
+            if (userAccount.getUsername().equals(jobInfo.getExtras().getString(SyncScheduler.JOB_EXTRA_USERNAME))) {
+                return jobInfo;
+            }
+        }
+
+        return null;
+    }
+
+    private static void resetSingleton(Class<?> clazz) throws Exception {
+        Field field = clazz.getDeclaredField("sInstance");
+        field.setAccessible(true);
+        field.set(null, null);
+    }
+}
@@ -0,0 +1,89 @@
+package net.gierach.githubsummary.testing;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+
+import net.gierach.githubsummary.provider.ReposProvider;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ReposProvider that counts write operations, including the ones applied as part of a batch, the number of
+ * batches that contained writes and the time spent applying those batches.
+ */
+public class CountingReposProvider extends ReposProvider {
+
+    private final AtomicInteger mWriteCount = new AtomicInteger();
+    private final AtomicInteger mWriteBatchCount = new AtomicInteger();
+    private final AtomicLong mWriteBatchNanos = new AtomicLong();
+
+    public int getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    public int getWriteBatchCount() {
+        return mWriteBatchCount.get();
+    }
+
+    public long getWriteBatchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mWriteBatchNanos.get());
+    }
+
+    public void resetCounts() {
+        mWriteCount.set(0);
+        mWriteBatchCount.set(0);
+        mWriteBatchNanos.set(0);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        mWriteCount.incrementAndGet();
+        return super.insert(uri, values);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        mWriteCount.addAndGet(values != null ? values.length : 0);
+        return super.bulkInsert(uri, values);
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        mWriteCount.incrementAndGet();
+        return super.update(uri, values, selection, selectionArgs);
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        mWriteCount.incrementAndGet();
+        return super.delete(uri, selection, selectionArgs);
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        boolean hasWrite = false;
+        for (ContentProviderOperation operation : operations) {
+            if (operation.isWriteOperation()) {
+                mWriteBatchCount.incrementAndGet();
+                hasWrite = true;
+                break;
+            }
+        }
+        if (!hasWrite) {
+            return super.applyBatch(operations);
+        }
+
+        long start = System.nanoTime();
+        try {
+            return super.applyBatch(operations);
+        } finally {
+            mWriteBatchNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package net.gierach.githubsummary.testing;
+
+import net.gierach.githubsummary.protocol.GitHubProtocol;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Local stand-in for the GitHub REST api serving synthetic /user, /user/repos and languages_url payloads.
+ * Repo count, page size, latency and the rate limit budget are configurable. Pages and language lists carry
+ * ETags and are answered with 304 when unchanged, and 304s do not count against the rate limit, like on GitHub.
+ */
+public class FakeGitHubServer {
+
+    private static final String OWNER = "octocat";
+    private static final String[] LANGUAGES = {"Java", "Kotlin", "C", "C++", "Python", "Shell", "Go", "Rust", "JavaScript", "HTML"};
+
+    private static final Logger MOCK_WEB_SERVER_LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+    private final MockWebServer mServer = new MockWebServer();
+
+    private int mRepoCount = 100;
+    private int mMaxPageSize = 100;
+    private long mLatencyMs = 0;
+    private int mRateLimit = 5000;
+    private int mRateLimitRemaining = 5000;
+    private long mRateLimitReset;
+    private volatile int mFailingRepoPage = 0;
+    private volatile int mRetryAfterSeconds = 0;
+    private volatile int mUnavailableRepo = -1;
+
+    private String[] mPushedAt;
+    private long[] mSize;
+
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mRepoPageRequestCount = new AtomicInteger();
+    private final AtomicInteger mLanguageRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+
+    public FakeGitHubServer setRepoCount(int repoCount) {
+        mRepoCount = repoCount;
+        return this;
+    }
+
+    public FakeGitHubServer setMaxPageSize(int maxPageSize) {
+        mMaxPageSize = maxPageSize;
+        return this;
+    }
+
+    public FakeGitHubServer setLatency(long latency, TimeUnit unit) {
+        mLatencyMs = unit.toMillis(latency);
+        return this;
+    }
+
+    public synchronized FakeGitHubServer setRateLimit(int limit, int remaining) {
+        mRateLimit = limit;
+        mRateLimitRemaining = remaining;
+        return this;
+    }
+
+    /**
+     * Answers the given page of the repo list with 410 Gone, which fails a sync part way through without being
+     * retried. 0 serves every page again.
+     */
+    public FakeGitHubServer setFailingRepoPage(int page) {
+        mFailingRepoPage = page;
+        return this;
+    }
+
+    /**
+     * Answers every repo page with a secondary rate limit, a 403 with this Retry-After. 0 serves them again.
+     */
+    public FakeGitHubServer setRetryAfter(int seconds) {
+        mRetryAfterSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Answers the languages of the repo with this index with 451 Unavailable For Legal Reasons, as for a repo
+     * disabled by a takedown. -1 serves them again.
+     */
+    public FakeGitHubServer setUnavailableRepo(int index) {
+        mUnavailableRepo = index;
+        return this;
+    }
+
+    /**
+     * Starts the server and points {@link GitHubProtocol} at it.
+     */
+    public void start() throws IOException {
+        mPushedAt = new String[mRepoCount];
+        mSize = new long[mRepoCount];
+        for (int i = 0; i < mRepoCount; ++i) {
+            mPushedAt[i] = "2018-01-01T00:00:00Z";
+            mSize[i] = 100 + i;
+        }
+        mRateLimitReset = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + TimeUnit.HOURS.toSeconds(1);
+
+        MOCK_WEB_SERVER_LOGGER.setLevel(Level.WARNING);
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return FakeGitHubServer.this.dispatch(request);
+            }
+        });
+        mServer.start();
+        GitHubProtocol.setApiHost(mServer.url("/").toString().replaceAll("/$", ""));
+    }
+
+    public void shutdown() throws IOException {
+        GitHubProtocol.setApiHost(null);
+        mServer.shutdown();
+    }
+
+    /**
+     * Simulates a push to one repo, changing its page, pushed_at, size and languages.
+     */
+    public synchronized void pushToRepo(int index) {
+        mPushedAt[index] = "2018-06-01T00:00:" + String.format("%02d", index % 60) + "Z";
+        mSize[index] += 1;
+    }
+
+    public void resetCounts() {
+        mRequestCount.set(0);
+        mRepoPageRequestCount.set(0);
+        mLanguageRequestCount.set(0);
+        mNotModifiedCount.set(0);
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getRepoPageRequestCount() {
+        return mRepoPageRequestCount.get();
+    }
+
+    public int getLanguageRequestCount() {
+        return mLanguageRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    private MockResponse dispatch(RecordedRequest request) {
+        mRequestCount.incrementAndGet();
+
+        HttpUrl url = mServer.url(request.getPath());
+        String path = url.encodedPath();
+        MockResponse response;
+        if (path.equals("/user")) {
+            response = conditional(request, "{\"login\":\"" + OWNER + "\",\"name\":\"The Octocat\"}");
+        } else if (path.equals("/user/repos")) {
+            mRepoPageRequestCount.incrementAndGet();
+            response = reposPage(request, url);
+        } else if (path.startsWith("/repos/") && path.endsWith("/languages")) {
+            mLanguageRequestCount.incrementAndGet();
+            response = languages(request, path);
+        } else {
+            response = new MockResponse().setResponseCode(404).setBody("{\"message\":\"Not Found\"}");
+        }
+
+        if (mLatencyMs > 0) {
+            response.setHeadersDelay(mLatencyMs, TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    private MockResponse reposPage(RecordedRequest request, HttpUrl url) {
+        String perPageParam = url.queryParameter("per_page");
+        String pageParam = url.queryParameter("page");
+        int perPage = Math.min(perPageParam != null ? Integer.parseInt(perPageParam) : 30, mMaxPageSize);
+        int page = pageParam != null ? Integer.parseInt(pageParam) : 1;
+        int lastPage = Math.max(1, (mRepoCount + perPage - 1) / perPage);
+        if (page == mFailingRepoPage) {
+            return new MockResponse().setResponseCode(410);
+        }
+        if (mRetryAfterSeconds > 0) {
+            return new MockResponse().setResponseCode(403).setHeader("Retry-After", mRetryAfterSeconds)
+                    .setBody("{\"message\":\"You have exceeded a secondary rate limit.\"}");
+        }
+
+        StringBuilder body = new StringBuilder("[");
+        synchronized (this) {
+            for (int i = (page - 1) * perPage; i < Math.min(page * perPage, mRepoCount); ++i) {
+                if (body.length() > 1) {
+                    body.append(',');
+                }
+                appendRepo(body, i);
+            }
+        }
+        body.append(']');
+
+        MockResponse response = conditional(request, body.toString());
+        if (page < lastPage) {
+            response.addHeader("Link", "<" + pageUrl(url, perPage, page + 1) + ">; rel=\"next\", <" + pageUrl(url, perPage, lastPage) + ">; rel=\"last\"");
+        } else if (lastPage > 1) {
+            response.addHeader("Link", "<" + pageUrl(url, perPage, 1) + ">; rel=\"first\", <" + pageUrl(url, perPage, page - 1) + ">; rel=\"prev\"");
+        }
+        return response;
+    }
+
+    private static String pageUrl(HttpUrl url, int perPage, int page) {
+        return url.newBuilder()
+                .setQueryParameter("per_page", Integer.toString(perPage))
+                .setQueryParameter("page", Integer.toString(page))
+                .build().toString();
+    }
+
+    private void appendRepo(StringBuilder sb, int index) {
+        String name = "repo-" + index;
+        sb.append("{\"id\":").append(1000 + index)
+                .append(",\"name\":\"").append(name)
+                .append("\",\"full_name\":\"").append(OWNER).append('/').append(name)
+                .append("\",\"owner\":{\"login\":\"").append(OWNER).append("\",\"type\":\"User\",\"site_admin\":false}")
+                .append(",\"private\":").append(index % 7 == 0)
+                .append(",\"description\":\"Synthetic repo ").append(index)
+                .append("\",\"fork\":false,\"languages_url\":\"").append(mServer.url("/repos/" + OWNER + '/' + name + "/languages"))
+                .append("\",\"pushed_at\":\"").append(mPushedAt[index])
+                .append("\",\"size\":").append(mSize[index])
+                .append(",\"stargazers_count\":").append(index % 13)
+                .append(",\"permissions\":{\"admin\":true,\"push\":true,\"pull\":true}}");
+    }
+
+    private MockResponse languages(RecordedRequest request, String path) {
+        String name = path.substring(("/repos/" + OWNER + "/").length(), path.length() - "/languages".length());
+        int index = Integer.parseInt(name.substring("repo-".length()));
+        if (index == mUnavailableRepo) {
+            return new MockResponse().setResponseCode(451).setBody("{\"message\":\"Repository access blocked\"}");
+        }
+
+        StringBuilder body = new StringBuilder("{");
+        synchronized (this) {
+            int count = 1 + index % 4;
+            for (int i = 0; i < count; ++i) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append('"').append(LANGUAGES[(index + i) % LANGUAGES.length]).append("\":").append(mSize[index] * 1000 / (i + 1));
+            }
+        }
+        body.append('}');
+
+        return conditional(request, body.toString());
+    }
+
+    private MockResponse conditional(RecordedRequest request, String body) {
+        String etag = "W/\"" + Integer.toHexString(body.hashCode()) + "\"";
+        MockResponse response = new MockResponse();
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            mNotModifiedCount.incrementAndGet();
+            response.setResponseCode(304);
+            addRateLimitHeaders(response, false);
+        } else if (!addRateLimitHeaders(response, true)) {
+            response.setResponseCode(403).setBody("{\"message\":\"API rate limit exceeded\"}");
+        } else {
+            response.setBody(body);
+            response.setHeader("Content-Type", "application/json; charset=utf-8");
+        }
+        response.setHeader("ETag", etag);
+        return response;
+    }
+
+    private synchronized boolean addRateLimitHeaders(MockResponse response, boolean counts) {
+        boolean allowed = mRateLimitRemaining > 0;
+        if (allowed && counts) {
+            --mRateLimitRemaining;
+        }
+        response.setHeader("X-RateLimit-Limit", mRateLimit);
+        response.setHeader("X-RateLimit-Remaining", mRateLimitRemaining);
+        response.setHeader("X-RateLimit-Reset", mRateLimitReset);
+        return allowed;
+    }
+}
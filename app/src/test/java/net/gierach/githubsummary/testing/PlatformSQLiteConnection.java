@@ -0,0 +1,39 @@
+package net.gierach.githubsummary.testing;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowSQLiteConnection;
+
+import java.util.HashMap;
+
+/**
+ * SQLiteConnection shadow whose executeInsert returns -1 when the statement inserted no row, as the platform's
+ * native implementation does. Robolectric returns the connection's last insert id instead, which for an
+ * INSERT OR IGNORE that was skipped is the id of an unrelated earlier row.
+ */
+@Implements(className = "android.database.sqlite.SQLiteConnection", isInAndroidSdk = false)
+public class PlatformSQLiteConnection extends ShadowSQLiteConnection {
+
+    //Connection pointers are never reused, so a statement of a closed connection is simply not looked up again.
+    private static final HashMap<Long, Long> sChangesStatements = new HashMap<>();
+
+    @Implementation
+    public static long nativeExecuteForLastInsertedRowId(long connectionPtr, long statementPtr) {
+        long rowId = ShadowSQLiteConnection.nativeExecuteForLastInsertedRowId(connectionPtr, statementPtr);
+
+        long changesPtr;
+        synchronized (sChangesStatements) {
+            Long cached = sChangesStatements.get(connectionPtr);
+            if (cached == null) {
+                cached = nativePrepareStatement(connectionPtr, "SELECT changes();");
+                sChangesStatements.put(connectionPtr, cached);
+            }
+            changesPtr = cached;
+        }
+        try {
+            return nativeExecuteForLong(connectionPtr, changesPtr) > 0 ? rowId : -1;
+        } finally {
+            nativeResetStatementAndClearBindings(connectionPtr, changesPtr);
+        }
+    }
+}